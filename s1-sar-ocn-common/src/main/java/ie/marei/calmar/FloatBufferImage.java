@@ -0,0 +1,47 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.image.ResolutionLevel;
+import org.esa.snap.core.image.SingleBandedOpImage;
+
+import javax.media.jai.PlanarImage;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.nio.FloatBuffer;
+
+/**
+ * The <code>FloatBufferImage</code> is a float image whose data is held in a (direct) {@link FloatBuffer}.
+ * It is used as source image of the lat and lon bands, which share their data with the
+ * {@link OffHeapLatLonGeoCoding}.
+ */
+public class FloatBufferImage extends SingleBandedOpImage {
+
+    private final FloatBuffer data;
+    private final int width;
+
+    /**
+     * Creates the image.
+     *
+     * @param data     The image data, row by row, of size <code>width * height</code>.
+     * @param width    The image width.
+     * @param height   The image height.
+     * @param tileSize The tile size.
+     */
+    public FloatBufferImage(FloatBuffer data, int width, int height, Dimension tileSize) {
+        super(DataBuffer.TYPE_FLOAT, width, height, tileSize, null, ResolutionLevel.MAXRES);
+        this.data = data.duplicate();
+        this.width = width;
+    }
+
+    @Override
+    protected void computeRect(PlanarImage[] sources, WritableRaster dest, Rectangle destRect) {
+        FloatBuffer rowData = data.duplicate();
+        float[] row = new float[destRect.width];
+        for (int y = destRect.y; y < destRect.y + destRect.height; y++) {
+            rowData.position(y * width + destRect.x);
+            rowData.get(row);
+            dest.setSamples(destRect.x, y, destRect.width, 1, 0, row);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ie.marei.calmar;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The <code>LatLonUtils</code> are the longitude arithmetic and lat/lon grid computations shared by the
+ * {@link OffHeapLatLonGeoCoding} and the OCN operators.
+ * <p/>
+ * A grid is held row by row in a (direct) {@link FloatBuffer} of size <code>width * height</code>. Buffer indexes
+ * are absolute, independent of the buffer position.
+ */
+public final class LatLonUtils {
+
+    private LatLonUtils() {
+    }
+
+    /**
+     * Normalizes a longitude, or a longitude difference, to the range [-180, 180] degrees.
+     *
+     * @param lon The longitude in degrees.
+     * @return The normalized longitude in degrees.
+     */
+    public static double normalizeLon(double lon) {
+        while (lon > 180.0) {
+            lon -= 360.0;
+        }
+        while (lon < -180.0) {
+            lon += 360.0;
+        }
+        return lon;
+    }
+
+    /**
+     * Returns the longitude which is equivalent to the given longitude and at most 180 degrees away from the
+     * reference longitude. Longitudes unwrapped to the same reference can be averaged and interpolated across the
+     * 180 degree meridian.
+     *
+     * @param lon          The longitude in degrees.
+     * @param referenceLon The reference longitude in degrees.
+     * @return The unwrapped longitude in degrees, in the range [referenceLon - 180, referenceLon + 180].
+     */
+    public static double unwrapLon(double lon, double referenceLon) {
+        return referenceLon + normalizeLon(lon - referenceLon);
+    }
+
+    /**
+     * Returns the block means of a lat or lon grid as a new off-heap grid. The blocks are
+     * <code>factor * factor</code> cells, the blocks at the right and bottom edge may be smaller. Longitudes are
+     * averaged unwrapped to the first cell of a block, so blocks crossing the 180 degree meridian are averaged
+     * correctly, and the means are normalized.
+     *
+     * @param data      The grid.
+     * @param width     The grid width.
+     * @param height    The grid height.
+     * @param factor    The block size.
+     * @param longitude <code>true</code> if the grid holds longitudes.
+     * @return The grid of block means, of size <code>ceil(width / factor) * ceil(height / factor)</code>.
+     */
+    public static FloatBuffer aggregateMean(FloatBuffer data, int width, int height, int factor, boolean longitude) {
+        int targetWidth = (width + factor - 1) / factor;
+        int targetHeight = (height + factor - 1) / factor;
+        FloatBuffer target = ByteBuffer.allocateDirect(targetWidth * targetHeight * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int j = 0; j < targetHeight; j++) {
+            for (int i = 0; i < targetWidth; i++) {
+                int maxY = Math.min(height, (j + 1) * factor);
+                int maxX = Math.min(width, (i + 1) * factor);
+                double reference = data.get(j * factor * width + i * factor);
+                double sum = 0.0;
+                int count = 0;
+                for (int y = j * factor; y < maxY; y++) {
+                    for (int x = i * factor; x < maxX; x++) {
+                        double value = data.get(y * width + x);
+                        sum += longitude ? unwrapLon(value, reference) : value;
+                        count++;
+                    }
+                }
+                double mean = sum / count;
+                target.put(j * targetWidth + i, (float) (longitude ? normalizeLon(mean) : mean));
+            }
+        }
+        return target;
+    }
+}
@@ -0,0 +1,436 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.dataio.ProductSubsetDef;
+import org.esa.snap.core.datamodel.*;
+import org.esa.snap.core.dataop.maptransf.Datum;
+import org.esa.snap.core.image.ImageManager;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The <code>OffHeapLatLonGeoCoding</code> is a geocoding based on full-scene latitude and longitude grids which are
+ * held in direct buffers outside the Java heap.
+ * <p/>
+ * Geographic positions are interpolated bilinearly between the grid points in the same way as by a
+ * {@link TiePointGeoCoding} with an offset of 0 and a sub-sampling of 1. Pixel positions are found by looking up
+ * the nearest grid point in a search index, refined by Newton iterations. The search index is built once, from every
+ * {@value #INDEX_STEP}th grid point sorted into the cells of a regular lat/lon grid.
+ */
+public class OffHeapLatLonGeoCoding extends AbstractGeoCoding {
+
+    private static final int STRIP_HEIGHT = 64;
+    private static final int INDEX_STEP = 4;
+    private static final int INDEX_POINTS_PER_CELL = 2;
+    private static final int MAX_ITERATIONS = 10;
+    private static final double PIXEL_EPSILON = 1.0e-4;
+
+    private FloatBuffer latData;
+    private FloatBuffer lonData;
+    private final int width;
+    private final int height;
+    private final boolean crossingMeridianAt180;
+
+    // search index: the grid point indexes of index cell c are indexPoints[indexCellStart[c]..indexCellStart[c + 1]]
+    private double indexMinLat;
+    private double indexMinLon;
+    private double indexCellSize;
+    private int indexRows;
+    private int indexColumns;
+    private int[] indexCellStart;
+    private int[] indexPoints;
+
+    /**
+     * Creates the geocoding.
+     *
+     * @param latData The latitudes, row by row, of size <code>width * height</code>.
+     * @param lonData The longitudes, row by row, of size <code>width * height</code>.
+     * @param width   The grid width.
+     * @param height  The grid height.
+     */
+    public OffHeapLatLonGeoCoding(FloatBuffer latData, FloatBuffer lonData, int width, int height) {
+        if (latData.capacity() != (long) width * height || lonData.capacity() != (long) width * height) {
+            throw new IllegalArgumentException("Latitude and longitude grids must have width * height values");
+        }
+        this.latData = latData;
+        this.lonData = lonData;
+        this.width = width;
+        this.height = height;
+        this.crossingMeridianAt180 = detectCrossingMeridianAt180(lonData, width, height);
+        buildSearchIndex();
+    }
+
+    /**
+     * Reads the geophysical data of the given raster into a direct buffer. The data is read in strips, so only a
+     * strip is held on the heap at any time.
+     *
+     * @param raster The raster, e.g. the owiLat or owiLon band.
+     * @return The direct buffer with the raster data, row by row.
+     */
+    public static FloatBuffer readOffHeap(RasterDataNode raster) {
+        int width = raster.getRasterWidth();
+        int height = raster.getRasterHeight();
+        long byteCount = (long) width * height * 4;
+        if (byteCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Raster " + raster.getName() + " of " + width + " x " + height +
+                    " pixels is too large for a direct buffer");
+        }
+        FloatBuffer data = ByteBuffer.allocateDirect((int) byteCount).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        float[] strip = new float[width * Math.min(STRIP_HEIGHT, height)];
+        for (int y = 0; y < height; y += STRIP_HEIGHT) {
+            int stripHeight = Math.min(STRIP_HEIGHT, height - y);
+            Raster stripData = raster.getGeophysicalImage().getData(new Rectangle(0, y, width, stripHeight));
+            stripData.getPixels(0, y, width, stripHeight, strip);
+            data.put(strip, 0, width * stripHeight);
+        }
+        data.rewind();
+        return data;
+    }
+
+    /**
+     * Adds a lat or lon band to the given product whose data is read from the given off-heap grid. The band shares
+     * the grid with the geocoding of the product.
+     *
+     * @param product  The product.
+     * @param bandName The band name.
+     * @param data     The lat or lon grid, row by row, of the size of the product.
+     * @param unit     The unit of the band.
+     * @return The band.
+     */
+    public static Band addLatLonBand(Product product, String bandName, FloatBuffer data, String unit) {
+        int width = product.getSceneRasterWidth();
+        int height = product.getSceneRasterHeight();
+        Band band = new Band(bandName, ProductData.TYPE_FLOAT32, width, height);
+        band.setUnit(unit);
+        band.setSourceImage(new FloatBufferImage(data, width, height, ImageManager.getPreferredTileSize(product)));
+        product.addBand(band);
+        return band;
+    }
+
+    public FloatBuffer getLatData() {
+        return latData.duplicate();
+    }
+
+    public FloatBuffer getLonData() {
+        return lonData.duplicate();
+    }
+
+    @Override
+    public boolean isCrossingMeridianAt180() {
+        return crossingMeridianAt180;
+    }
+
+    @Override
+    public boolean canGetPixelPos() {
+        return true;
+    }
+
+    @Override
+    public boolean canGetGeoPos() {
+        return true;
+    }
+
+    @Override
+    public GeoPos getGeoPos(PixelPos pixelPos, GeoPos geoPos) {
+        if (geoPos == null) {
+            geoPos = new GeoPos();
+        }
+        if (pixelPos == null || !pixelPos.isValid()) {
+            geoPos.setInvalid();
+            return geoPos;
+        }
+        double lat = interpolate(latData, pixelPos.x, pixelPos.y, false);
+        double lon = interpolate(lonData, pixelPos.x, pixelPos.y, crossingMeridianAt180);
+        geoPos.setLocation(lat, LatLonUtils.normalizeLon(lon));
+        return geoPos;
+    }
+
+    @Override
+    public PixelPos getPixelPos(GeoPos geoPos, PixelPos pixelPos) {
+        if (pixelPos == null) {
+            pixelPos = new PixelPos();
+        }
+        if (geoPos == null || !geoPos.isValid()) {
+            pixelPos.setInvalid();
+            return pixelPos;
+        }
+
+        // nearest grid point of the search index
+        int nearestIndex = findNearestGridPoint(geoPos);
+        if (nearestIndex < 0) {
+            pixelPos.setInvalid();
+            return pixelPos;
+        }
+        double x = nearestIndex % width;
+        double y = nearestIndex / width;
+
+        // refine by Newton iterations on the bilinear interpolation
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double lat = interpolate(latData, x, y, false);
+            double lon = interpolate(lonData, x, y, crossingMeridianAt180);
+            double dLatDx = interpolate(latData, x + 0.5, y, false) - interpolate(latData, x - 0.5, y, false);
+            double dLatDy = interpolate(latData, x, y + 0.5, false) - interpolate(latData, x, y - 0.5, false);
+            double dLonDx = interpolate(lonData, x + 0.5, y, crossingMeridianAt180) -
+                    interpolate(lonData, x - 0.5, y, crossingMeridianAt180);
+            double dLonDy = interpolate(lonData, x, y + 0.5, crossingMeridianAt180) -
+                    interpolate(lonData, x, y - 0.5, crossingMeridianAt180);
+            double determinant = dLatDx * dLonDy - dLatDy * dLonDx;
+            if (determinant == 0.0 || Double.isNaN(determinant)) {
+                break;
+            }
+            double deltaLat = geoPos.lat - lat;
+            double deltaLon = LatLonUtils.normalizeLon(geoPos.lon - lon);
+            double dx = (dLonDy * deltaLat - dLatDy * deltaLon) / determinant;
+            double dy = (dLatDx * deltaLon - dLonDx * deltaLat) / determinant;
+            x += dx;
+            y += dy;
+            if (Math.abs(dx) < PIXEL_EPSILON && Math.abs(dy) < PIXEL_EPSILON) {
+                break;
+            }
+        }
+
+        if (Double.isNaN(x) || Double.isNaN(y) || x < 0 || x > width || y < 0 || y > height) {
+            pixelPos.setInvalid();
+        } else {
+            pixelPos.setLocation(x, y);
+        }
+        return pixelPos;
+    }
+
+    @Override
+    public Datum getDatum() {
+        return Datum.WGS_84;
+    }
+
+    @Override
+    public void dispose() {
+        latData = null;
+        lonData = null;
+    }
+
+    @Override
+    public boolean transferGeoCoding(Scene srcScene, Scene destScene, ProductSubsetDef subsetDef) {
+        Rectangle region = new Rectangle(0, 0, width, height);
+        int subSamplingX = 1;
+        int subSamplingY = 1;
+        if (subsetDef != null) {
+            if (subsetDef.getRegion() != null) {
+                region = subsetDef.getRegion();
+            }
+            subSamplingX = subsetDef.getSubSamplingX();
+            subSamplingY = subsetDef.getSubSamplingY();
+        }
+        int destWidth = (region.width - 1) / subSamplingX + 1;
+        int destHeight = (region.height - 1) / subSamplingY + 1;
+        FloatBuffer destLatData = allocate(destWidth * destHeight);
+        FloatBuffer destLonData = allocate(destWidth * destHeight);
+        for (int j = 0; j < destHeight; j++) {
+            for (int i = 0; i < destWidth; i++) {
+                int index = (region.y + j * subSamplingY) * width + region.x + i * subSamplingX;
+                destLatData.put(latData.get(index));
+                destLonData.put(lonData.get(index));
+            }
+        }
+        destLatData.rewind();
+        destLonData.rewind();
+        destScene.setGeoCoding(new OffHeapLatLonGeoCoding(destLatData, destLonData, destWidth, destHeight));
+        return true;
+    }
+
+    @Override
+    public boolean canClone() {
+        return true;
+    }
+
+    @Override
+    public GeoCoding clone() {
+        return new OffHeapLatLonGeoCoding(latData, lonData, width, height);
+    }
+
+    /**
+     * Builds the search index from every {@value #INDEX_STEP}th grid point, always including the last row and column.
+     * The index cells are squares in degrees, sized for about {@value #INDEX_POINTS_PER_CELL} grid points per cell.
+     */
+    private void buildSearchIndex() {
+        int[] columns = getIndexSteps(width);
+        int[] rows = getIndexSteps(height);
+        double minLat = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        int pointCount = 0;
+        for (int j : rows) {
+            for (int i : columns) {
+                double lat = latData.get(j * width + i);
+                double lon = value(lonData, i, j, crossingMeridianAt180);
+                if (!Double.isNaN(lat) && !Double.isNaN(lon)) {
+                    minLat = Math.min(minLat, lat);
+                    maxLat = Math.max(maxLat, lat);
+                    minLon = Math.min(minLon, lon);
+                    maxLon = Math.max(maxLon, lon);
+                    pointCount++;
+                }
+            }
+        }
+        if (pointCount == 0) {
+            indexCellStart = new int[1];
+            indexPoints = new int[0];
+            return;
+        }
+        // at most pointCount cells along each axis, also for a grid which is a line
+        double area = (maxLat - minLat) * (maxLon - minLon);
+        indexCellSize = Math.max(Math.sqrt(area * INDEX_POINTS_PER_CELL / pointCount),
+                Math.max(Math.max(maxLat - minLat, maxLon - minLon) / pointCount, 1.0e-6));
+        indexMinLat = minLat;
+        indexMinLon = minLon;
+        indexRows = (int) Math.floor((maxLat - minLat) / indexCellSize) + 1;
+        indexColumns = (int) Math.floor((maxLon - minLon) / indexCellSize) + 1;
+
+        // counting sort of the grid points by index cell
+        int[] pointCells = new int[rows.length * columns.length];
+        indexCellStart = new int[indexRows * indexColumns + 1];
+        for (int r = 0; r < rows.length; r++) {
+            for (int c = 0; c < columns.length; c++) {
+                int cell = getIndexCell(latData.get(rows[r] * width + columns[c]),
+                                        value(lonData, columns[c], rows[r], crossingMeridianAt180));
+                pointCells[r * columns.length + c] = cell;
+                if (cell >= 0) {
+                    indexCellStart[cell + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < indexRows * indexColumns; cell++) {
+            indexCellStart[cell + 1] += indexCellStart[cell];
+        }
+        indexPoints = new int[pointCount];
+        int[] cellFill = new int[indexRows * indexColumns];
+        for (int r = 0; r < rows.length; r++) {
+            for (int c = 0; c < columns.length; c++) {
+                int cell = pointCells[r * columns.length + c];
+                if (cell >= 0) {
+                    indexPoints[indexCellStart[cell] + cellFill[cell]++] = rows[r] * width + columns[c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the grid index of the indexed grid point nearest to the given position, or -1 if the position is more
+     * than one index cell outside of the grid. The index cells are searched in rings around the cell of the position,
+     * up to one ring beyond the first ring with a grid point.
+     */
+    private int findNearestGridPoint(GeoPos geoPos) {
+        if (indexPoints.length == 0) {
+            return -1;
+        }
+        double lon = geoPos.lon;
+        if (crossingMeridianAt180 && lon < 0.0) {
+            lon += 360.0;
+        }
+        int row = (int) Math.floor((geoPos.lat - indexMinLat) / indexCellSize);
+        int column = (int) Math.floor((lon - indexMinLon) / indexCellSize);
+        if (row < -1 || row > indexRows || column < -1 || column > indexColumns) {
+            return -1;
+        }
+        int nearestIndex = -1;
+        int nearestRing = 0;
+        double nearestDistance = Double.MAX_VALUE;
+        int maxRing = Math.max(indexRows, indexColumns) + 1;
+        for (int ring = 0; ring <= maxRing && (nearestIndex < 0 || ring <= nearestRing + 1); ring++) {
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= indexRows) {
+                    continue;
+                }
+                boolean edgeRow = r == row - ring || r == row + ring;
+                for (int c = column - ring; c <= column + ring; c += edgeRow ? 1 : 2 * Math.max(ring, 1)) {
+                    if (c < 0 || c >= indexColumns) {
+                        continue;
+                    }
+                    int cell = r * indexColumns + c;
+                    for (int p = indexCellStart[cell]; p < indexCellStart[cell + 1]; p++) {
+                        int index = indexPoints[p];
+                        double distance = distance(geoPos, latData.get(index), lonData.get(index));
+                        if (distance < nearestDistance) {
+                            nearestDistance = distance;
+                            nearestIndex = index;
+                            nearestRing = ring;
+                        }
+                    }
+                }
+            }
+        }
+        return nearestIndex;
+    }
+
+    private int getIndexCell(double lat, double lon) {
+        if (Double.isNaN(lat) || Double.isNaN(lon)) {
+            return -1;
+        }
+        int row = Math.min(indexRows - 1, (int) ((lat - indexMinLat) / indexCellSize));
+        int column = Math.min(indexColumns - 1, (int) ((lon - indexMinLon) / indexCellSize));
+        return row * indexColumns + column;
+    }
+
+    private static int[] getIndexSteps(int size) {
+        int count = (size - 1) / INDEX_STEP + 1;
+        boolean lastIncluded = (size - 1) % INDEX_STEP == 0;
+        int[] steps = new int[lastIncluded ? count : count + 1];
+        for (int k = 0; k < count; k++) {
+            steps[k] = k * INDEX_STEP;
+        }
+        steps[steps.length - 1] = size - 1;
+        return steps;
+    }
+
+    private double interpolate(FloatBuffer data, double x, double y, boolean shiftLon) {
+        int i0 = Math.max(0, Math.min(width - 2, (int) Math.floor(x)));
+        int j0 = Math.max(0, Math.min(height - 2, (int) Math.floor(y)));
+        int i1 = Math.min(width - 1, i0 + 1);
+        int j1 = Math.min(height - 1, j0 + 1);
+        double wx = x - i0;
+        double wy = y - j0;
+        double v00 = value(data, i0, j0, shiftLon);
+        double v10 = value(data, i1, j0, shiftLon);
+        double v01 = value(data, i0, j1, shiftLon);
+        double v11 = value(data, i1, j1, shiftLon);
+        return (1 - wy) * ((1 - wx) * v00 + wx * v10) + wy * ((1 - wx) * v01 + wx * v11);
+    }
+
+    private double value(FloatBuffer data, int i, int j, boolean shiftLon) {
+        double value = data.get(j * width + i);
+        return shiftLon ? LatLonUtils.unwrapLon(value, 180.0) : value;
+    }
+
+    private static double distance(GeoPos geoPos, double lat, double lon) {
+        double deltaLat = geoPos.lat - lat;
+        double deltaLon = LatLonUtils.normalizeLon(geoPos.lon - lon) * Math.cos(Math.toRadians(geoPos.lat));
+        return deltaLat * deltaLat + deltaLon * deltaLon;
+    }
+
+    private static boolean detectCrossingMeridianAt180(FloatBuffer lonData, int width, int height) {
+        for (int j = 0; j < height; j++) {
+            for (int i = 1; i < width; i++) {
+                int index = j * width + i;
+                if (Math.abs(lonData.get(index) - lonData.get(index - 1)) > 180.0) {
+                    return true;
+                }
+            }
+        }
+        for (int j = 1; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                int index = j * width + i;
+                if (Math.abs(lonData.get(index) - lonData.get(index - width)) > 180.0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static FloatBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,425 @@
+package ie.marei.calmar;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.gpf.OperatorException;
+import org.esa.snap.core.gpf.annotations.OperatorMetadata;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The <code>ResultCache</code> is an on-disk cache of operator results, addressed by the identity of the source
+ * product, the operator alias and version, and the operator parameter values.
+ * <p/>
+ * Every cache entry is a directory named after the entry key. The key is derived from cheap identity data of the
+ * source product, see {@link #computeSourceId(Product)}, and the description it is derived from is kept in the
+ * entry as <code>entry.properties</code>. Once all tiles of a target product have been computed, the product is
+ * stored in the entry as BEAM-DIMAP, and a matching request is answered with the stored product, without reading
+ * the source data. Until then the entry is a {@link TileJournal} of the computed tiles. The cache is bounded in
+ * size; the least recently used entries are evicted first.
+ * <p/>
+ * Several operators, also in different processes, can share a cache directory. An opened entry holds a shared
+ * lock on its lock file <code>&lt;key&gt;.lock</code> next to the entry directory until the cache is closed, and
+ * eviction skips entries which are locked.
+ */
+public class ResultCache {
+
+    private static final String LOCK_FILE_EXTENSION = ".lock";
+    private static final String ENTRY_FILE_NAME = "entry.properties";
+    private static final String PRODUCT_DIR_NAME = "product";
+    private static final String PRODUCT_FILE_NAME = "product.dim";
+    private static final String PRODUCT_FORMAT = "BEAM-DIMAP";
+    private static final String MANIFEST_FILE_NAME = "manifest.safe";
+
+    /**
+     * The locks of the entries opened in this JVM, by lock file. A JVM cannot lock a file twice, so all operators
+     * of the JVM which use an entry share its lock.
+     */
+    private static final Map<File, EntryLock> entryLocks = new HashMap<>();
+
+    private final File cacheDir;
+    private final long maxSizeBytes;
+    private final List<File> lockedEntries = new ArrayList<>();
+
+    public ResultCache(File cacheDir, long maxSizeBytes) {
+        this.cacheDir = cacheDir;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Opens the cache entry for the given key and marks it as most recently used. The entry is locked against
+     * eviction until {@link #close()} is called. Other entries are evicted if the cache exceeds its maximum size.
+     *
+     * @param key         The entry key, see {@link #createKey(OperatorMetadata, Map, String)}.
+     * @param description The description the key is derived from, see
+     *                    {@link #describeEntry(OperatorMetadata, Map, String)}. It is stored with a new entry.
+     * @return The tile journal of the cache entry.
+     * @throws OperatorException If the cache entry cannot be opened.
+     */
+    public TileJournal openEntry(String key, String description) throws OperatorException {
+        File entryDir = new File(cacheDir, key);
+        File lockFile = getLockFile(entryDir);
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            lockEntry(lockFile);
+            lockedEntries.add(lockFile);
+        } catch (IOException e) {
+            SystemUtils.LOG.warning("Cannot lock cache entry " + entryDir + ", it may be evicted while in use: " +
+                    e.getMessage());
+        }
+        TileJournal tileJournal = TileJournal.open(entryDir, key);
+        writeEntryDescription(entryDir, description);
+        if (!entryDir.setLastModified(System.currentTimeMillis())) {
+            SystemUtils.LOG.warning("Cannot update access time of cache entry " + entryDir);
+        }
+        evict(entryDir);
+        return tileJournal;
+    }
+
+    /**
+     * Reads the target product stored in the cache entry for the given key.
+     *
+     * @param key The entry key.
+     * @return The product, or <code>null</code> if no product has been stored or it cannot be read.
+     */
+    public Product readProduct(String key) {
+        File productFile = new File(new File(new File(cacheDir, key), PRODUCT_DIR_NAME), PRODUCT_FILE_NAME);
+        if (!productFile.isFile()) {
+            return null;
+        }
+        try {
+            return ProductIO.readProduct(productFile);
+        } catch (IOException e) {
+            SystemUtils.LOG.warning("Cannot read cached product " + productFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the completely computed target product in the cache entry for the given key, and deletes the recorded
+     * tiles of the entry. The product is written to a temporary directory first and renamed when complete.
+     *
+     * @param key     The entry key, the entry must have been opened by this cache.
+     * @param product The target product, all of its tiles must be computed or restorable from the entry.
+     * @throws OperatorException If the product cannot be written.
+     */
+    public void writeProduct(String key, Product product) throws OperatorException {
+        File entryDir = new File(cacheDir, key);
+        Path productDir = new File(entryDir, PRODUCT_DIR_NAME).toPath();
+        Path tempDir = new File(entryDir, PRODUCT_DIR_NAME + ".tmp").toPath();
+        try {
+            if (Files.exists(productDir)) {
+                return;
+            }
+            if (Files.exists(tempDir)) {
+                delete(tempDir);
+            }
+            Files.createDirectories(tempDir);
+            ProductIO.writeProduct(product, tempDir.resolve(PRODUCT_FILE_NAME).toFile(), PRODUCT_FORMAT, false,
+                                   ProgressMonitor.NULL);
+            Files.move(tempDir, productDir, StandardCopyOption.ATOMIC_MOVE);
+            File[] tileFiles = entryDir.listFiles((dir, name) -> name.endsWith(TileJournal.TILE_FILE_EXTENSION));
+            if (tileFiles != null) {
+                for (File tileFile : tileFiles) {
+                    Files.deleteIfExists(tileFile.toPath());
+                }
+            }
+        } catch (IOException e) {
+            throw new OperatorException("Cannot store product in cache entry " + entryDir + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Releases the entries opened by this cache, and evicts the least recently used entries if the cache exceeds its
+     * maximum size.
+     */
+    public void close() {
+        synchronized (entryLocks) {
+            for (File lockFile : lockedEntries) {
+                EntryLock entryLock = entryLocks.get(lockFile);
+                if (entryLock != null && --entryLock.useCount == 0) {
+                    entryLocks.remove(lockFile);
+                    try {
+                        entryLock.lock.channel().close();
+                    } catch (IOException e) {
+                        SystemUtils.LOG.warning("Cannot release cache entry lock " + lockFile + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        lockedEntries.clear();
+        evict(null);
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache does not exceed its maximum size. Entries which are
+     * in use by an operator of this or another process are not deleted.
+     *
+     * @param keepDir An entry directory which must not be evicted, may be <code>null</code>.
+     */
+    public void evict(File keepDir) {
+        File[] entryDirs = cacheDir.listFiles(File::isDirectory);
+        if (entryDirs == null) {
+            return;
+        }
+        Map<File, Long> entrySizes = new HashMap<>();
+        long totalSize = 0;
+        for (File entryDir : entryDirs) {
+            long entrySize = getSize(entryDir.toPath());
+            entrySizes.put(entryDir, entrySize);
+            totalSize += entrySize;
+        }
+        Arrays.sort(entryDirs, Comparator.comparingLong(File::lastModified));
+        for (File entryDir : entryDirs) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            if (entryDir.equals(keepDir)) {
+                continue;
+            }
+            try {
+                if (deleteUnlocked(entryDir)) {
+                    totalSize -= entrySizes.get(entryDir);
+                }
+            } catch (IOException e) {
+                SystemUtils.LOG.warning("Cannot evict cache entry " + entryDir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes the entry directory and its lock file if the entry is not locked.
+     *
+     * @return <code>true</code> if the entry has been deleted.
+     */
+    private static boolean deleteUnlocked(File entryDir) throws IOException {
+        File lockFile = getLockFile(entryDir);
+        synchronized (entryLocks) {
+            if (entryLocks.containsKey(lockFile)) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE)) {
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    return false;
+                }
+                // both are deleted while the lock is held, see lockEntry
+                delete(entryDir.toPath());
+                Files.delete(lockFile.toPath());
+                return true;
+            } catch (OverlappingFileLockException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Acquires the shared lock of an entry for this JVM, or increments its use count if it is already held.
+     */
+    private static void lockEntry(File lockFile) throws IOException {
+        synchronized (entryLocks) {
+            EntryLock entryLock = entryLocks.get(lockFile);
+            if (entryLock == null) {
+                entryLock = new EntryLock(acquireSharedLock(lockFile.toPath()));
+                entryLocks.put(lockFile, entryLock);
+            }
+            entryLock.useCount++;
+        }
+    }
+
+    private static FileLock acquireSharedLock(Path lockPath) throws IOException {
+        while (true) {
+            FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                   StandardOpenOption.WRITE);
+            try {
+                Object fileKey = Files.readAttributes(lockPath, BasicFileAttributes.class).fileKey();
+                FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+                // an evicting process deletes the lock file while holding the exclusive lock, so a lock acquired
+                // on a deleted or replaced lock file does not protect the entry and is acquired again
+                if (Files.exists(lockPath) && (fileKey == null ||
+                        fileKey.equals(Files.readAttributes(lockPath, BasicFileAttributes.class).fileKey()))) {
+                    return lock;
+                }
+            } catch (NoSuchFileException e) {
+                // deleted by an evicting process, try again
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            channel.close();
+        }
+    }
+
+    private static File getLockFile(File entryDir) {
+        return new File(entryDir.getParentFile(), entryDir.getName() + LOCK_FILE_EXTENSION);
+    }
+
+    /**
+     * Creates the key of a cache entry.
+     *
+     * @param metadata   The operator metadata providing alias and version.
+     * @param parameters The operator parameter values.
+     * @param sourceId   The identity of the source product, see {@link #computeSourceId(Product)}.
+     * @return The key, a hexadecimal SHA-256 digest of the entry description.
+     */
+    public static String createKey(OperatorMetadata metadata, Map<String, Object> parameters, String sourceId) {
+        String description = describeEntry(metadata, parameters, sourceId);
+        return toHex(createDigest().digest(description.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Describes a cache entry by the operator alias and version, the parameter values sorted by name and the
+     * identity of the source product.
+     */
+    public static String describeEntry(OperatorMetadata metadata, Map<String, Object> parameters, String sourceId) {
+        StringBuilder description = new StringBuilder();
+        description.append(metadata.alias()).append(';').append(metadata.version()).append(';').append(sourceId);
+        for (Map.Entry<String, Object> parameter : new TreeMap<>(parameters).entrySet()) {
+            description.append(';').append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+        return description.toString();
+    }
+
+    /**
+     * Computes the identity of the files the given product has been read from, without reading the product data.
+     * <p/>
+     * The identity is the SHA-256 digest of the SAFE manifest, which lists the checksums of all data files of the
+     * product, and of the path relative to the product directory, size and modification time of every file. For a
+     * zipped SAFE product the manifest inside the archive is used. The product can therefore be moved, e.g. from
+     * an inbox to a processed directory, without changing its identity.
+     *
+     * @param product The source product.
+     * @return The identity, or <code>null</code> if the product has not been read from a file.
+     * @throws OperatorException If the product files cannot be accessed.
+     */
+    public static String computeSourceId(Product product) throws OperatorException {
+        File fileLocation = product.getFileLocation();
+        if (fileLocation == null || !fileLocation.exists()) {
+            return null;
+        }
+        if (fileLocation.isFile() && fileLocation.getName().equalsIgnoreCase(MANIFEST_FILE_NAME)) {
+            fileLocation = fileLocation.getParentFile();
+        }
+        Path root = fileLocation.isDirectory() ? fileLocation.toPath() : fileLocation.toPath().getParent();
+        try {
+            MessageDigest digest = createDigest();
+            for (Path file : TileJournal.getInputFiles(product)) {
+                String description = root.relativize(file) + ";" + Files.size(file) + ";" +
+                        Files.getLastModifiedTime(file).toMillis() + ";";
+                digest.update(description.getBytes(StandardCharsets.UTF_8));
+                hashManifest(file, digest);
+            }
+            return toHex(digest.digest());
+        } catch (IOException e) {
+            throw new OperatorException("Cannot compute identity of " + fileLocation + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the content of a SAFE manifest, or of the manifest inside a zipped SAFE product, to the digest.
+     */
+    private static void hashManifest(Path file, MessageDigest digest) throws IOException {
+        String fileName = file.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        if (fileName.equals(MANIFEST_FILE_NAME)) {
+            digest.update(Files.readAllBytes(file));
+        } else if (fileName.endsWith(".zip")) {
+            try (ZipFile zipFile = new ZipFile(file.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.getName().toLowerCase(Locale.ENGLISH).endsWith("/" + MANIFEST_FILE_NAME)) {
+                        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                            byte[] buffer = new byte[8192];
+                            int length;
+                            while ((length = inputStream.read(buffer)) > 0) {
+                                digest.update(buffer, 0, length);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeEntryDescription(File entryDir, String description) {
+        File entryFile = new File(entryDir, ENTRY_FILE_NAME);
+        if (description == null || entryFile.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("description", description);
+        try (OutputStream outputStream = new FileOutputStream(entryFile)) {
+            properties.store(outputStream, "Result cache entry");
+        } catch (IOException e) {
+            SystemUtils.LOG.warning("Cannot write description of cache entry " + entryDir + ": " + e.getMessage());
+        }
+    }
+
+    private static long getSize(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static class EntryLock {
+
+        private final FileLock lock;
+        private int useCount;
+
+        EntryLock(FileLock lock) {
+            this.lock = lock;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.gpf.Operator;
+import org.esa.snap.core.gpf.OperatorException;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.gpf.annotations.OperatorMetadata;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The <code>ResultStore</code> holds the previously computed target tiles of an operator, either in a tile
+ * checkpoint journal or in a result cache entry, see {@link TileJournal} and {@link ResultCache}.
+ * <p/>
+ * The journal or cache entry is selected by the operator alias and version, the operator parameter values and the
+ * source product. A result cache entry also holds the complete target product once all its tiles have been
+ * computed, see {@link #getCachedProduct(String, String)}.
+ */
+public class ResultStore {
+
+    private final TileJournal tileJournal;
+    private final ResultCache resultCache;
+    private final String cacheKey;
+    private final Set<Rectangle> storedRectangles = ConcurrentHashMap.newKeySet();
+
+    private ResultStore(TileJournal tileJournal, ResultCache resultCache, String cacheKey) {
+        this.tileJournal = tileJournal;
+        this.resultCache = resultCache;
+        this.cacheKey = cacheKey;
+    }
+
+    /**
+     * Opens the checkpoint journal or the result cache entry of an operator.
+     *
+     * @param operatorClass The operator class, annotated with its {@link OperatorMetadata}.
+     * @param parameters    The operator parameter values which determine the target product.
+     * @param sourceProduct The source product.
+     * @param checkpointDir The directory of the checkpoint journal, may be <code>null</code>.
+     * @param cacheDir      The directory of the result cache, may be <code>null</code>.
+     * @param cacheMaxSize  The maximum size of the result cache in MB.
+     * @return The result store, or <code>null</code> if neither directory is given or the result cache cannot be
+     * used because the source product has not been read from a file.
+     * @throws OperatorException If both directories are given, or the journal or cache entry cannot be opened.
+     */
+    public static ResultStore open(Class<? extends Operator> operatorClass, Map<String, Object> parameters,
+                                   Product sourceProduct, File checkpointDir, File cacheDir, long cacheMaxSize)
+            throws OperatorException {
+        if (checkpointDir != null && cacheDir != null) {
+            throw new OperatorException("The parameters checkpointDir and cacheDir cannot be used together");
+        }
+        OperatorMetadata metadata = operatorClass.getAnnotation(OperatorMetadata.class);
+        if (checkpointDir != null) {
+            StringBuilder fingerprint = new StringBuilder();
+            fingerprint.append(metadata.alias()).append(';').append(metadata.version());
+            for (Map.Entry<String, Object> parameter : new TreeMap<>(parameters).entrySet()) {
+                fingerprint.append(';').append(parameter.getKey()).append('=').append(parameter.getValue());
+            }
+            fingerprint.append(';').append(TileJournal.describeInput(sourceProduct));
+            return new ResultStore(TileJournal.open(checkpointDir, fingerprint.toString()), null, null);
+        }
+        if (cacheDir != null) {
+            String sourceId = ResultCache.computeSourceId(sourceProduct);
+            if (sourceId == null) {
+                SystemUtils.LOG.warning("Result cache not used: the source product has not been read from a file");
+                return null;
+            }
+            ResultCache resultCache = new ResultCache(cacheDir, cacheMaxSize * 1024 * 1024);
+            String key = ResultCache.createKey(metadata, parameters, sourceId);
+            TileJournal tileJournal = resultCache.openEntry(key, ResultCache.describeEntry(metadata, parameters,
+                                                                                           sourceId));
+            return new ResultStore(tileJournal, resultCache, key);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the target product stored in the result cache entry, with an {@link OffHeapLatLonGeoCoding} built from
+     * its lat and lon bands. The product is read from the cache entry only, the source product is not read.
+     *
+     * @param latBandName The name of the latitude band of the target product.
+     * @param lonBandName The name of the longitude band of the target product.
+     * @return The product, or <code>null</code> if no result cache is used or the entry does not hold a product.
+     */
+    public Product getCachedProduct(String latBandName, String lonBandName) {
+        if (resultCache == null) {
+            return null;
+        }
+        Product product = resultCache.readProduct(cacheKey);
+        if (product == null) {
+            return null;
+        }
+        Band latBand = product.getBand(latBandName);
+        Band lonBand = product.getBand(lonBandName);
+        if (latBand == null || lonBand == null) {
+            SystemUtils.LOG.warning("Cached product not used: lat or lon band is missing");
+            product.dispose();
+            return null;
+        }
+        product.setSceneGeoCoding(new OffHeapLatLonGeoCoding(OffHeapLatLonGeoCoding.readOffHeap(latBand),
+                                                             OffHeapLatLonGeoCoding.readOffHeap(lonBand),
+                                                             product.getSceneRasterWidth(),
+                                                             product.getSceneRasterHeight()));
+        for (Band band : product.getBands()) {
+            // set the source images of the bands, so that the operator does not compute any tile
+            band.getSourceImage();
+        }
+        return product;
+    }
+
+    /**
+     * Restores the target tiles of the given rectangle, if they have been stored.
+     *
+     * @return <code>true</code> if the tiles have been restored.
+     * @see TileJournal#restoreTile(Map, Rectangle)
+     */
+    public boolean restoreTile(Map<Band, Tile> targetTiles, Rectangle targetRectangle) throws OperatorException {
+        if (tileJournal.restoreTile(targetTiles, targetRectangle)) {
+            storedRectangles.add(new Rectangle(targetRectangle));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores the computed target tiles of the given rectangle.
+     *
+     * @see TileJournal#recordTile(Map, Rectangle)
+     */
+    public void recordTile(Map<Band, Tile> targetTiles, Rectangle targetRectangle) throws OperatorException {
+        tileJournal.recordTile(targetTiles, targetRectangle);
+        storedRectangles.add(new Rectangle(targetRectangle));
+    }
+
+    /**
+     * Stores the target product in the result cache entry if all of its tiles have been computed or restored, then
+     * releases the lock of the result cache entry, and evicts least recently used result cache entries if the cache
+     * has grown beyond its maximum size.
+     *
+     * @param targetProduct The target product of the operator, may be <code>null</code> if it has been read from
+     *                      the result cache.
+     */
+    public void close(Product targetProduct) {
+        if (resultCache == null) {
+            return;
+        }
+        try {
+            if (targetProduct != null && isComplete(targetProduct)) {
+                resultCache.writeProduct(cacheKey, targetProduct);
+            }
+        } catch (OperatorException e) {
+            SystemUtils.LOG.warning(e.getMessage());
+        } finally {
+            resultCache.close();
+        }
+    }
+
+    /**
+     * Tells whether the stored tile rectangles cover the whole scene of the given product. The tile rectangles
+     * of an operator do not overlap.
+     */
+    private boolean isComplete(Product product) {
+        long area = 0;
+        for (Rectangle rectangle : storedRectangles) {
+            area += (long) rectangle.width * rectangle.height;
+        }
+        return area >= (long) product.getSceneRasterWidth() * product.getSceneRasterHeight();
+    }
+}
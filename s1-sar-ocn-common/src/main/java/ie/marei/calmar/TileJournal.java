@@ -0,0 +1,259 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.gpf.OperatorException;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The <code>TileJournal</code> records completed target tiles of an operator in a local directory, so that a
+ * restarted run only needs to compute the tiles which are missing.
+ * <p/>
+ * Each tile is written to its own file, first under a temporary name, forced to the storage device and then
+ * atomically renamed. A run that is killed while writing a tile therefore never leaves a partial tile behind; a tile
+ * which is nevertheless short or corrupt, e.g. after a crash of the whole machine, is discarded and recomputed. The
+ * journal also stores a fingerprint of the operator input; if the fingerprint of a restarted run differs, the
+ * recorded tiles are discarded.
+ */
+public class TileJournal {
+
+    private static final String FINGERPRINT_FILE_NAME = "journal.properties";
+    private static final String FINGERPRINT_KEY = "fingerprint";
+    static final String TILE_FILE_EXTENSION = ".tile";
+    private static final int TILE_FILE_MAGIC = 0x4F574954;
+
+    private final File journalDir;
+    private volatile boolean recordingStopped;
+
+    private TileJournal(File journalDir) {
+        this.journalDir = journalDir;
+    }
+
+    /**
+     * Opens the journal in the given directory, creating it if required.
+     * <p/>
+     * If the directory holds tiles recorded for a different input fingerprint, these tiles are deleted.
+     *
+     * @param journalDir  The journal directory.
+     * @param fingerprint The fingerprint of the operator input and parameters.
+     * @return The opened journal.
+     * @throws OperatorException If the journal directory cannot be created or written.
+     */
+    public static TileJournal open(File journalDir, String fingerprint) throws OperatorException {
+        try {
+            Files.createDirectories(journalDir.toPath());
+            File fingerprintFile = new File(journalDir, FINGERPRINT_FILE_NAME);
+            Properties properties = new Properties();
+            if (fingerprintFile.isFile()) {
+                try (InputStream inputStream = new FileInputStream(fingerprintFile)) {
+                    properties.load(inputStream);
+                }
+            }
+            if (!fingerprint.equals(properties.getProperty(FINGERPRINT_KEY))) {
+                File[] tileFiles = journalDir.listFiles((dir, name) -> name.endsWith(TILE_FILE_EXTENSION));
+                if (tileFiles != null && tileFiles.length > 0) {
+                    SystemUtils.LOG.warning("Discarding tile journal " + journalDir + ": input has changed");
+                    for (File tileFile : tileFiles) {
+                        Files.delete(tileFile.toPath());
+                    }
+                }
+                properties.setProperty(FINGERPRINT_KEY, fingerprint);
+                try (OutputStream outputStream = new FileOutputStream(fingerprintFile)) {
+                    properties.store(outputStream, "Tile journal");
+                }
+            }
+        } catch (IOException e) {
+            throw new OperatorException("Cannot open tile journal " + journalDir + ": " + e.getMessage(), e);
+        }
+        return new TileJournal(journalDir);
+    }
+
+    /**
+     * Describes the given source product by its dimension, its sensing period and the path, size and modification
+     * time of every file it is read from, see {@link #getInputFiles(Product)}. The description changes whenever the
+     * source product or any of its files is replaced.
+     *
+     * @param sourceProduct The source product.
+     * @return The description.
+     * @throws OperatorException If the product files cannot be listed.
+     */
+    public static String describeInput(Product sourceProduct) throws OperatorException {
+        StringBuilder description = new StringBuilder();
+        description.append(sourceProduct.getName());
+        description.append(';').append(sourceProduct.getSceneRasterWidth());
+        description.append('x').append(sourceProduct.getSceneRasterHeight());
+        description.append(';').append(sourceProduct.getStartTime());
+        description.append(';').append(sourceProduct.getEndTime());
+        try {
+            description.append(describeFiles(getInputFiles(sourceProduct)));
+        } catch (IOException e) {
+            throw new OperatorException("Cannot list the files of " + sourceProduct.getName() + ": " + e.getMessage(), e);
+        }
+        return description.toString();
+    }
+
+    /**
+     * Returns the files the given product has been read from, sorted by path. For a product read from a SAFE
+     * manifest these are all files of the SAFE directory, for a product read from a directory all files of the
+     * directory, otherwise the file location itself.
+     *
+     * @param product The product.
+     * @return The files, empty if the product has not been read from a file.
+     * @throws IOException If the product directory cannot be listed.
+     */
+    static List<Path> getInputFiles(Product product) throws IOException {
+        File fileLocation = product.getFileLocation();
+        if (fileLocation == null || !fileLocation.exists()) {
+            return Collections.emptyList();
+        }
+        if (fileLocation.isFile() && fileLocation.getName().equalsIgnoreCase("manifest.safe")) {
+            fileLocation = fileLocation.getParentFile();
+        }
+        try (Stream<Path> paths = Files.walk(fileLocation.toPath())) {
+            return paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Describes the given files by their path, size and modification time.
+     *
+     * @param files The files.
+     * @return The description.
+     * @throws IOException If a file cannot be accessed.
+     */
+    static String describeFiles(List<Path> files) throws IOException {
+        StringBuilder description = new StringBuilder();
+        for (Path file : files) {
+            description.append(';').append(file.toAbsolutePath());
+            description.append(';').append(Files.size(file));
+            description.append(';').append(Files.getLastModifiedTime(file).toMillis());
+        }
+        return description.toString();
+    }
+
+    /**
+     * Restores a recorded tile into the given target tiles. A short or corrupt tile file is deleted, so that the tile
+     * is computed and recorded again.
+     *
+     * @param targetTiles     The target tiles to be filled.
+     * @param targetRectangle The target rectangle.
+     * @return <code>true</code> if the tile was recorded for the same bands and has been restored.
+     * @throws OperatorException If the recorded tile cannot be read.
+     */
+    public boolean restoreTile(Map<Band, Tile> targetTiles, Rectangle targetRectangle) throws OperatorException {
+        File tileFile = getTileFile(targetRectangle);
+        if (!tileFile.isFile()) {
+            return false;
+        }
+        List<Band> bands = getSortedBands(targetTiles);
+        int sampleCount = targetRectangle.width * targetRectangle.height;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(tileFile)))) {
+            if (inputStream.readInt() != TILE_FILE_MAGIC) {
+                discardTile(tileFile);
+                return false;
+            }
+            if (inputStream.readInt() != bands.size()) {
+                return false;
+            }
+            for (Band band : bands) {
+                if (!band.getName().equals(inputStream.readUTF())) {
+                    return false;
+                }
+            }
+            float[][] samples = new float[bands.size()][sampleCount];
+            for (float[] bandSamples : samples) {
+                for (int i = 0; i < sampleCount; i++) {
+                    bandSamples[i] = inputStream.readFloat();
+                }
+            }
+            for (int i = 0; i < bands.size(); i++) {
+                targetTiles.get(bands.get(i)).setSamples(samples[i]);
+            }
+        } catch (FileNotFoundException e) {
+            // the tile has been removed after the check above, e.g. by a concurrent cache eviction
+            return false;
+        } catch (EOFException | UTFDataFormatException e) {
+            discardTile(tileFile);
+            return false;
+        } catch (IOException e) {
+            throw new OperatorException("Cannot read tile journal " + tileFile + ": " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Records the computed target tiles. If the journal directory has been deleted, e.g. a result cache entry
+     * evicted on a file system without file locks, recording stops and the tiles are only computed.
+     *
+     * @param targetTiles     The computed target tiles.
+     * @param targetRectangle The target rectangle.
+     * @throws OperatorException If the tile cannot be written.
+     */
+    public void recordTile(Map<Band, Tile> targetTiles, Rectangle targetRectangle) throws OperatorException {
+        if (recordingStopped) {
+            return;
+        }
+        File tileFile = getTileFile(targetRectangle);
+        File tempFile = new File(journalDir, tileFile.getName() + ".tmp");
+        List<Band> bands = getSortedBands(targetTiles);
+        try {
+            try (FileOutputStream fileStream = new FileOutputStream(tempFile);
+                 DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileStream))) {
+                outputStream.writeInt(TILE_FILE_MAGIC);
+                outputStream.writeInt(bands.size());
+                for (Band band : bands) {
+                    outputStream.writeUTF(band.getName());
+                }
+                for (Band band : bands) {
+                    for (float sample : targetTiles.get(band).getSamplesFloat()) {
+                        outputStream.writeFloat(sample);
+                    }
+                }
+                // the tile must be on disk before it is renamed, otherwise a crash can leave a truncated tile
+                outputStream.flush();
+                fileStream.getChannel().force(true);
+            }
+            Files.move(tempFile.toPath(), tileFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!journalDir.isDirectory()) {
+                if (!recordingStopped) {
+                    SystemUtils.LOG.warning("Tile journal " + journalDir + " has been deleted, tiles are no longer recorded");
+                    recordingStopped = true;
+                }
+                return;
+            }
+            throw new OperatorException("Cannot write tile journal " + tileFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void discardTile(File tileFile) {
+        SystemUtils.LOG.warning("Discarding corrupt tile " + tileFile);
+        try {
+            Files.deleteIfExists(tileFile.toPath());
+        } catch (IOException e) {
+            SystemUtils.LOG.warning("Cannot delete corrupt tile " + tileFile + ": " + e.getMessage());
+        }
+    }
+
+    private File getTileFile(Rectangle targetRectangle) {
+        String tileName = targetRectangle.x + "_" + targetRectangle.y + "_" +
+                targetRectangle.width + "_" + targetRectangle.height + TILE_FILE_EXTENSION;
+        return new File(journalDir, tileName);
+    }
+
+    private static List<Band> getSortedBands(Map<Band, Tile> targetTiles) {
+        List<Band> bands = new ArrayList<>(targetTiles.keySet());
+        bands.sort(Comparator.comparing(Band::getName));
+        return bands;
+    }
+}
@@ -0,0 +1,52 @@
+package ie.marei.calmar;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class LatLonUtilsTest {
+
+    @Test
+    public void testNormalizeLon() {
+        assertEquals(10.0, LatLonUtils.normalizeLon(10.0), 1.0e-9);
+        assertEquals(-170.0, LatLonUtils.normalizeLon(190.0), 1.0e-9);
+        assertEquals(170.0, LatLonUtils.normalizeLon(-190.0), 1.0e-9);
+        assertEquals(0.0, LatLonUtils.normalizeLon(720.0), 1.0e-9);
+    }
+
+    @Test
+    public void testUnwrapLon() {
+        assertEquals(190.0, LatLonUtils.unwrapLon(-170.0, 180.0), 1.0e-9);
+        assertEquals(170.0, LatLonUtils.unwrapLon(170.0, 180.0), 1.0e-9);
+        assertEquals(-190.0, LatLonUtils.unwrapLon(170.0, -179.0), 1.0e-9);
+    }
+
+    @Test
+    public void testAggregateMean() {
+        FloatBuffer data = FloatBuffer.wrap(new float[]{
+                1.0f, 2.0f, 3.0f,
+                3.0f, 4.0f, 5.0f
+        });
+
+        FloatBuffer means = LatLonUtils.aggregateMean(data, 3, 2, 2, false);
+
+        assertEquals(2, means.capacity());
+        assertEquals(2.5f, means.get(0), 1.0e-6f);
+        assertEquals(4.0f, means.get(1), 1.0e-6f);
+    }
+
+    @Test
+    public void testAggregateMean_lonCrossingMeridianAt180() {
+        FloatBuffer data = FloatBuffer.wrap(new float[]{
+                179.0f, -179.0f,
+                178.0f, -178.0f
+        });
+
+        FloatBuffer means = LatLonUtils.aggregateMean(data, 2, 2, 2, true);
+
+        assertEquals(1, means.capacity());
+        assertEquals(180.0f, Math.abs(means.get(0)), 1.0e-4f);
+    }
+}
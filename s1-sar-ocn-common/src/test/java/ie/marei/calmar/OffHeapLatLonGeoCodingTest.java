@@ -0,0 +1,88 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class OffHeapLatLonGeoCodingTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    @Test
+    public void testGetGeoPos() {
+        OffHeapLatLonGeoCoding geoCoding = createGeoCoding(-10.0f);
+
+        GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(2.5, 3.0), null);
+        assertEquals(53.0 - 0.01 * 3.0 + 0.002 * 2.5, geoPos.lat, 1.0e-5);
+        assertEquals(-10.0 + 0.02 * 2.5 + 0.003 * 3.0, geoPos.lon, 1.0e-5);
+        assertFalse(geoCoding.isCrossingMeridianAt180());
+    }
+
+    @Test
+    public void testGetPixelPos() {
+        OffHeapLatLonGeoCoding geoCoding = createGeoCoding(-10.0f);
+
+        GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(17.25, 11.75), null);
+        PixelPos pixelPos = geoCoding.getPixelPos(geoPos, null);
+        assertEquals(17.25, pixelPos.x, 1.0e-3);
+        assertEquals(11.75, pixelPos.y, 1.0e-3);
+    }
+
+    @Test
+    public void testGetPixelPos_largeGrid() {
+        OffHeapLatLonGeoCoding geoCoding = createGeoCoding(-10.0f, 270, 1500);
+
+        double[][] positions = {{0.0, 0.0}, {269.0, 1499.0}, {135.4, 750.6}, {3.3, 1201.9}, {268.5, 2.25}};
+        for (double[] position : positions) {
+            GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(position[0], position[1]), null);
+            PixelPos pixelPos = geoCoding.getPixelPos(geoPos, null);
+            assertEquals(position[0], pixelPos.x, 1.0e-3);
+            assertEquals(position[1], pixelPos.y, 1.0e-3);
+        }
+    }
+
+    @Test
+    public void testGetPixelPos_outside() {
+        OffHeapLatLonGeoCoding geoCoding = createGeoCoding(-10.0f);
+
+        PixelPos pixelPos = geoCoding.getPixelPos(new GeoPos(60.0, -10.0), null);
+        assertFalse(pixelPos.isValid());
+    }
+
+    @Test
+    public void testCrossingMeridianAt180() {
+        OffHeapLatLonGeoCoding geoCoding = createGeoCoding(179.7f);
+        assertTrue(geoCoding.isCrossingMeridianAt180());
+
+        GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(20.0, 5.0), null);
+        assertEquals(179.7 + 0.02 * 20.0 + 0.003 * 5.0 - 360.0, geoPos.lon, 1.0e-4);
+
+        PixelPos pixelPos = geoCoding.getPixelPos(geoPos, null);
+        assertEquals(20.0, pixelPos.x, 1.0e-3);
+        assertEquals(5.0, pixelPos.y, 1.0e-3);
+    }
+
+    private static OffHeapLatLonGeoCoding createGeoCoding(float lon0) {
+        return createGeoCoding(lon0, WIDTH, HEIGHT);
+    }
+
+    private static OffHeapLatLonGeoCoding createGeoCoding(float lon0, int width, int height) {
+        FloatBuffer latData = FloatBuffer.allocate(width * height);
+        FloatBuffer lonData = FloatBuffer.allocate(width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float lon = lon0 + 0.02f * x + 0.003f * y;
+                latData.put(53.0f - 0.01f * y + 0.002f * x);
+                lonData.put(lon > 180.0f ? lon - 360.0f : lon);
+            }
+        }
+        latData.rewind();
+        lonData.rewind();
+        return new OffHeapLatLonGeoCoding(latData, lonData, width, height);
+    }
+}
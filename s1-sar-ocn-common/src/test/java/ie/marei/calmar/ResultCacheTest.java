@@ -0,0 +1,184 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.gpf.annotations.OperatorMetadata;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCreateKey() throws Exception {
+        OperatorMetadata metadata = TestOp.class.getAnnotation(OperatorMetadata.class);
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("windHeight", 100.0);
+        parameters.put("shearExponent", 0.1);
+        String key = ResultCache.createKey(metadata, parameters, "abc");
+
+        assertEquals(64, key.length());
+        assertEquals(key, ResultCache.createKey(metadata, new HashMap<>(parameters), "abc"));
+        assertNotEquals(key, ResultCache.createKey(metadata, parameters, "abd"));
+
+        parameters.put("windHeight", 80.0);
+        assertNotEquals(key, ResultCache.createKey(metadata, parameters, "abc"));
+    }
+
+    @Test
+    public void testComputeSourceId_detectsReplacedMeasurement() throws Exception {
+        File safeDir = createSafeDir(temporaryFolder.newFolder("inbox"));
+        File measurement = new File(safeDir, "measurement/s1a-iw-ocn-vv.nc");
+        Product product = createProduct(safeDir);
+
+        String sourceId = ResultCache.computeSourceId(product);
+        assertEquals(sourceId, ResultCache.computeSourceId(product));
+
+        Files.write(measurement.toPath(), new byte[100]);
+        assertTrue(measurement.setLastModified(2000000L));
+
+        assertNotEquals(sourceId, ResultCache.computeSourceId(product));
+    }
+
+    @Test
+    public void testComputeSourceId_detectsChangedManifest() throws Exception {
+        File safeDir = createSafeDir(temporaryFolder.newFolder("inbox"));
+        File manifest = new File(safeDir, "manifest.safe");
+        Product product = createProduct(safeDir);
+        String sourceId = ResultCache.computeSourceId(product);
+
+        byte[] changedManifest = new byte[10];
+        changedManifest[0] = 1;
+        Files.write(manifest.toPath(), changedManifest);
+        // same size and modification time, only the manifest content differs
+        assertTrue(manifest.setLastModified(1000000L));
+
+        assertNotEquals(sourceId, ResultCache.computeSourceId(product));
+    }
+
+    @Test
+    public void testComputeSourceId_survivesMove() throws Exception {
+        File safeDir = createSafeDir(temporaryFolder.newFolder("inbox"));
+        String sourceId = ResultCache.computeSourceId(createProduct(safeDir));
+
+        File movedDir = new File(temporaryFolder.newFolder("processed"), safeDir.getName());
+        Files.move(safeDir.toPath(), movedDir.toPath());
+
+        assertEquals(sourceId, ResultCache.computeSourceId(createProduct(movedDir)));
+    }
+
+    @Test
+    public void testOpenEntry_storesDescription() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        ResultCache resultCache = new ResultCache(cacheDir, Long.MAX_VALUE);
+        resultCache.openEntry("a", "OCN-Test;0.1;abc");
+        resultCache.close();
+
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(new File(cacheDir, "a/entry.properties"))) {
+            properties.load(inputStream);
+        }
+        assertEquals("OCN-Test;0.1;abc", properties.getProperty("description"));
+    }
+
+    @Test
+    public void testReadProduct_noStoredProduct() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        ResultCache resultCache = new ResultCache(cacheDir, Long.MAX_VALUE);
+        resultCache.openEntry("a", null);
+
+        assertNull(resultCache.readProduct("a"));
+        resultCache.close();
+    }
+
+    @Test
+    public void testEvict_leastRecentlyUsedFirst() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        File oldest = createEntry(cacheDir, "a", 1000L);
+        File middle = createEntry(cacheDir, "b", 2000L);
+        File newest = createEntry(cacheDir, "c", 3000L);
+
+        new ResultCache(cacheDir, 250).evict(null);
+
+        assertFalse(oldest.exists());
+        assertTrue(middle.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void testEvict_keepsGivenEntry() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        File oldest = createEntry(cacheDir, "a", 1000L);
+        File newest = createEntry(cacheDir, "b", 2000L);
+
+        new ResultCache(cacheDir, 100).evict(oldest);
+
+        assertTrue(oldest.exists());
+        assertFalse(newest.exists());
+    }
+
+    @Test
+    public void testEvict_skipsEntryInUse() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        ResultCache cacheInUse = new ResultCache(cacheDir, Long.MAX_VALUE);
+        cacheInUse.openEntry("a", null);
+        File inUse = new File(cacheDir, "a");
+        Files.write(new File(inUse, "0_0_10_10.tile").toPath(), new byte[100]);
+        assertTrue(inUse.setLastModified(1000L));
+        File unused = createEntry(cacheDir, "b", 2000L);
+
+        new ResultCache(cacheDir, 0).evict(null);
+
+        assertTrue(inUse.exists());
+        assertFalse(unused.exists());
+
+        cacheInUse.close();
+        new ResultCache(cacheDir, 0).evict(null);
+
+        assertFalse(inUse.exists());
+        assertFalse(new File(cacheDir, "a.lock").exists());
+    }
+
+    @OperatorMetadata(alias = "OCN-Test", version = "0.1")
+    private static class TestOp {
+    }
+
+    private static File createSafeDir(File parentDir) throws IOException {
+        File safeDir = new File(parentDir, "S1A_IW_OCN__2SDV.SAFE");
+        File measurement = new File(safeDir, "measurement/s1a-iw-ocn-vv.nc");
+        Files.createDirectories(measurement.getParentFile().toPath());
+        File manifest = new File(safeDir, "manifest.safe");
+        Files.write(manifest.toPath(), new byte[10]);
+        Files.write(measurement.toPath(), new byte[100]);
+        assertTrue(manifest.setLastModified(1000000L));
+        assertTrue(measurement.setLastModified(1000000L));
+        return safeDir;
+    }
+
+    private static Product createProduct(File safeDir) {
+        Product product = new Product("S1A_IW_OCN__2SDV", "OCN", 10, 10);
+        product.setFileLocation(new File(safeDir, "manifest.safe"));
+        return product;
+    }
+
+    private static File createEntry(File cacheDir, String name, long lastModified) throws IOException {
+        File entryDir = new File(cacheDir, name);
+        Files.createDirectories(entryDir.toPath());
+        Files.write(new File(entryDir, "0_0_10_10.tile").toPath(), new byte[100]);
+        assertTrue(entryDir.setLastModified(lastModified));
+        return entryDir;
+    }
+}
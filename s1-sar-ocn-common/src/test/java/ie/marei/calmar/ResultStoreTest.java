@@ -0,0 +1,125 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.Operator;
+import org.esa.snap.core.gpf.OperatorException;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.gpf.annotations.OperatorMetadata;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResultStoreTest {
+
+    private static final Rectangle RECTANGLE = new Rectangle(0, 0, 2, 2);
+    private static final Band BAND = new Band("a", ProductData.TYPE_FLOAT32, 2, 2);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testOpen_noDirectories() throws Exception {
+        assertNull(ResultStore.open(TestOp.class, Collections.emptyMap(), createSourceProduct(), null, null, 100));
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testOpen_checkpointAndCacheDir() throws Exception {
+        ResultStore.open(TestOp.class, Collections.emptyMap(), createSourceProduct(),
+                         temporaryFolder.newFolder("journal"), temporaryFolder.newFolder("cache"), 100);
+    }
+
+    @Test
+    public void testCheckpoint_parametersSelectTiles() throws Exception {
+        File journalDir = temporaryFolder.newFolder("journal");
+        Product sourceProduct = createSourceProduct();
+        Map<String, Object> parameters = Collections.singletonMap("windHeight", 100.0);
+        ResultStore.open(TestOp.class, parameters, sourceProduct, journalDir, null, 100)
+                .recordTile(createTiles(new float[]{1.0f, 2.0f, 3.0f, 4.0f}), RECTANGLE);
+
+        Map<Band, Tile> restoredTiles = createTiles(new float[4]);
+        assertTrue(ResultStore.open(TestOp.class, parameters, sourceProduct, journalDir, null, 100)
+                           .restoreTile(restoredTiles, RECTANGLE));
+        assertArrayEquals(new float[]{1.0f, 2.0f, 3.0f, 4.0f}, restoredTiles.get(BAND).getSamplesFloat(), 0.0f);
+
+        assertFalse(ResultStore.open(TestOp.class, Collections.singletonMap("windHeight", 80.0), sourceProduct,
+                                     journalDir, null, 100).restoreTile(createTiles(new float[4]), RECTANGLE));
+    }
+
+    @Test
+    public void testCache_storesCompleteProduct() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        Product sourceProduct = createSourceProduct();
+        ResultStore resultStore = ResultStore.open(TestOp.class, Collections.emptyMap(), sourceProduct, null,
+                                                   cacheDir, 100);
+        resultStore.recordTile(createTiles(new float[]{1.0f, 2.0f, 3.0f, 4.0f}), RECTANGLE);
+        resultStore.close(new Product("target", "OCN", 2, 2));
+
+        File[] entryDirs = cacheDir.listFiles(File::isDirectory);
+        assertEquals(1, entryDirs.length);
+        assertTrue(new File(entryDirs[0], "product/product.dim").isFile());
+        assertTrue(new File(entryDirs[0], "entry.properties").isFile());
+        assertEquals(0, entryDirs[0].listFiles((dir, name) -> name.endsWith(".tile")).length);
+    }
+
+    @Test
+    public void testCache_incompleteProductNotStored() throws Exception {
+        File cacheDir = temporaryFolder.newFolder("cache");
+        Product sourceProduct = createSourceProduct();
+        ResultStore resultStore = ResultStore.open(TestOp.class, Collections.emptyMap(), sourceProduct, null,
+                                                   cacheDir, 100);
+        resultStore.recordTile(createTiles(new float[]{1.0f, 2.0f, 3.0f, 4.0f}), RECTANGLE);
+        resultStore.close(new Product("target", "OCN", 4, 2));
+
+        File[] entryDirs = cacheDir.listFiles(File::isDirectory);
+        assertEquals(1, entryDirs.length);
+        assertFalse(new File(entryDirs[0], "product").exists());
+        assertNull(ResultStore.open(TestOp.class, Collections.emptyMap(), sourceProduct, null, cacheDir, 100)
+                           .getCachedProduct("lat", "lon"));
+    }
+
+    private Product createSourceProduct() throws Exception {
+        File sourceFile = temporaryFolder.newFile("source.nc");
+        Files.write(sourceFile.toPath(), new byte[10]);
+        Product product = new Product("source", "OCN", 2, 2);
+        product.setFileLocation(sourceFile);
+        return product;
+    }
+
+    /**
+     * Creates the tile of {@link #BAND}, which only supports getting and setting all float samples.
+     */
+    private static Map<Band, Tile> createTiles(float[] samples) {
+        float[][] data = {samples.clone()};
+        Tile tile = (Tile) Proxy.newProxyInstance(Tile.class.getClassLoader(), new Class<?>[]{Tile.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getSamplesFloat")) {
+                        return data[0].clone();
+                    }
+                    if (method.getName().equals("setSamples") && args[0] instanceof float[]) {
+                        data[0] = ((float[]) args[0]).clone();
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return Collections.singletonMap(BAND, tile);
+    }
+
+    @OperatorMetadata(alias = "OCN-Test", version = "0.1")
+    private static class TestOp extends Operator {
+
+        @Override
+        public void initialize() {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.Tile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TileJournalTest {
+
+    private static final Rectangle RECTANGLE = new Rectangle(0, 0, 2, 2);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndRestore() throws Exception {
+        File journalDir = temporaryFolder.newFolder("journal");
+        Band a = new Band("a", ProductData.TYPE_FLOAT32, 2, 2);
+        Band b = new Band("b", ProductData.TYPE_FLOAT32, 2, 2);
+        Map<Band, Tile> recordedTiles = new HashMap<>();
+        recordedTiles.put(a, createTile(new float[]{1.0f, 2.0f, 3.0f, 4.0f}));
+        recordedTiles.put(b, createTile(new float[]{-999.0f, Float.NaN, 0.5f, 7.0f}));
+        TileJournal.open(journalDir, "input").recordTile(recordedTiles, RECTANGLE);
+
+        Map<Band, Tile> restoredTiles = new HashMap<>();
+        restoredTiles.put(a, createTile(new float[4]));
+        restoredTiles.put(b, createTile(new float[4]));
+        assertTrue(TileJournal.open(journalDir, "input").restoreTile(restoredTiles, RECTANGLE));
+
+        assertArrayEquals(new float[]{1.0f, 2.0f, 3.0f, 4.0f}, restoredTiles.get(a).getSamplesFloat(), 0.0f);
+        assertArrayEquals(new float[]{-999.0f, Float.NaN, 0.5f, 7.0f}, restoredTiles.get(b).getSamplesFloat(), 0.0f);
+        assertFalse(TileJournal.open(journalDir, "input").restoreTile(restoredTiles, new Rectangle(2, 0, 2, 2)));
+    }
+
+    @Test
+    public void testOpen_fingerprintMismatchDiscardsTiles() throws Exception {
+        File journalDir = temporaryFolder.newFolder("journal");
+        Map<Band, Tile> tiles = createTiles();
+        TileJournal.open(journalDir, "input").recordTile(tiles, RECTANGLE);
+
+        TileJournal journal = TileJournal.open(journalDir, "changed input");
+
+        assertFalse(journal.restoreTile(createTiles(), RECTANGLE));
+        assertFalse(new File(journalDir, "0_0_2_2.tile").exists());
+    }
+
+    @Test
+    public void testRestore_truncatedTileIsDiscarded() throws Exception {
+        File journalDir = temporaryFolder.newFolder("journal");
+        TileJournal.open(journalDir, "input").recordTile(createTiles(), RECTANGLE);
+        File tileFile = new File(journalDir, "0_0_2_2.tile");
+        try (RandomAccessFile file = new RandomAccessFile(tileFile, "rw")) {
+            file.setLength(10);
+        }
+
+        assertFalse(TileJournal.open(journalDir, "input").restoreTile(createTiles(), RECTANGLE));
+        assertFalse(tileFile.exists());
+    }
+
+    @Test
+    public void testRecord_deletedJournalStopsRecording() throws Exception {
+        File journalDir = temporaryFolder.newFolder("journal");
+        TileJournal journal = TileJournal.open(journalDir, "input");
+        for (File file : journalDir.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(journalDir.toPath());
+
+        journal.recordTile(createTiles(), RECTANGLE);
+
+        assertFalse(journalDir.exists());
+    }
+
+    @Test
+    public void testDescribeInput_detectsReplacedMeasurement() throws Exception {
+        File safeDir = temporaryFolder.newFolder("S1A_IW_OCN__2SDV.SAFE");
+        File manifest = new File(safeDir, "manifest.safe");
+        File measurement = new File(safeDir, "measurement/s1a-iw-ocn-vv.nc");
+        Files.createDirectories(measurement.getParentFile().toPath());
+        Files.write(manifest.toPath(), new byte[10]);
+        Files.write(measurement.toPath(), new byte[100]);
+        Product product = new Product("S1A_IW_OCN__2SDV", "OCN", 10, 10);
+        product.setFileLocation(manifest);
+
+        String description = TileJournal.describeInput(product);
+        Files.write(measurement.toPath(), new byte[200]);
+
+        assertNotEquals(description, TileJournal.describeInput(product));
+    }
+
+    private static Map<Band, Tile> createTiles() {
+        Map<Band, Tile> tiles = new HashMap<>();
+        tiles.put(new Band("a", ProductData.TYPE_FLOAT32, 2, 2), createTile(new float[4]));
+        return tiles;
+    }
+
+    /**
+     * Creates a tile which only supports getting and setting all float samples.
+     */
+    private static Tile createTile(float[] samples) {
+        float[][] data = {samples.clone()};
+        return (Tile) Proxy.newProxyInstance(Tile.class.getClassLoader(), new Class<?>[]{Tile.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getSamplesFloat")) {
+                        return data[0].clone();
+                    }
+                    if (method.getName().equals("setSamples") && args[0] instanceof float[]) {
+                        data[0] = ((float[]) args[0]).clone();
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,296 @@
+package ie.marei.calmar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The <code>NetcdfClassicHeader</code> parses the header of a NetCDF classic (CDF-1) or 64-bit offset (CDF-2) file.
+ * <p/>
+ * Only the parts needed to locate the data of fixed size variables are kept: dimensions, attributes, and for each
+ * variable its type, shape and file offset. NetCDF-4 files, which are HDF5 files, are not supported.
+ */
+public class NetcdfClassicHeader {
+
+    public static final int NC_BYTE = 1;
+    public static final int NC_CHAR = 2;
+    public static final int NC_SHORT = 3;
+    public static final int NC_INT = 4;
+    public static final int NC_FLOAT = 5;
+    public static final int NC_DOUBLE = 6;
+
+    private static final int NC_DIMENSION = 0x0A;
+    private static final int NC_VARIABLE = 0x0B;
+    private static final int NC_ATTRIBUTE = 0x0C;
+
+    private final Map<String, Object> attributes;
+    private final Map<String, Variable> variables;
+
+    private NetcdfClassicHeader(Map<String, Object> attributes, Map<String, Variable> variables) {
+        this.attributes = attributes;
+        this.variables = variables;
+    }
+
+    /**
+     * Tests whether the given bytes start with the magic number of a NetCDF classic or 64-bit offset file.
+     *
+     * @param magic The first four bytes of a file.
+     * @return <code>true</code> if the file is a NetCDF classic or 64-bit offset file.
+     */
+    public static boolean isClassicFormat(byte[] magic) {
+        return magic.length >= 4 && magic[0] == 'C' && magic[1] == 'D' && magic[2] == 'F' &&
+                (magic[3] == 1 || magic[3] == 2);
+    }
+
+    /**
+     * Tests whether the given bytes start with the HDF5 signature, as NetCDF-4 files do.
+     *
+     * @param magic The first four bytes of a file.
+     * @return <code>true</code> if the file is an HDF5 file.
+     */
+    public static boolean isHdf5Format(byte[] magic) {
+        return magic.length >= 4 && magic[0] == (byte) 0x89 && magic[1] == 'H' && magic[2] == 'D' && magic[3] == 'F';
+    }
+
+    /**
+     * Parses the header at the start of the given buffer.
+     *
+     * @param buffer The file contents, e.g. a memory-mapped file. The buffer position is not changed.
+     * @return The parsed header.
+     * @throws IOException If the buffer does not start with a valid NetCDF classic or 64-bit offset header.
+     */
+    public static NetcdfClassicHeader parse(ByteBuffer buffer) throws IOException {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        header.position(0);
+        try {
+            byte[] magic = new byte[4];
+            header.get(magic);
+            if (isHdf5Format(magic)) {
+                throw new IOException("NetCDF-4/HDF5 files are not supported, only NetCDF classic and 64-bit " +
+                        "offset files");
+            }
+            if (!isClassicFormat(magic)) {
+                throw new IOException("Not a NetCDF classic or 64-bit offset file");
+            }
+            boolean offset64 = magic[3] == 2;
+            header.getInt(); // numrecs, only needed for record variables
+
+            List<String> dimensionNames = new ArrayList<>();
+            List<Integer> dimensionLengths = new ArrayList<>();
+            int dimensionCount = readListHeader(header, NC_DIMENSION);
+            for (int i = 0; i < dimensionCount; i++) {
+                dimensionNames.add(readName(header));
+                dimensionLengths.add(header.getInt());
+            }
+
+            Map<String, Object> attributes = readAttributes(header);
+
+            Map<String, Variable> variables = new LinkedHashMap<>();
+            int variableCount = readListHeader(header, NC_VARIABLE);
+            for (int i = 0; i < variableCount; i++) {
+                String name = readName(header);
+                int rank = header.getInt();
+                String[] shapeNames = new String[rank];
+                int[] shape = new int[rank];
+                boolean record = false;
+                for (int d = 0; d < rank; d++) {
+                    int dimensionId = header.getInt();
+                    shapeNames[d] = dimensionNames.get(dimensionId);
+                    shape[d] = dimensionLengths.get(dimensionId);
+                    // the unlimited dimension has length zero in the dimension list
+                    record |= shape[d] == 0;
+                }
+                Map<String, Object> variableAttributes = readAttributes(header);
+                int type = header.getInt();
+                header.getInt(); // vsize
+                long begin = offset64 ? header.getLong() : header.getInt() & 0xFFFFFFFFL;
+                variables.put(name, new Variable(name, type, shapeNames, shape, record, begin, variableAttributes));
+            }
+            return new NetcdfClassicHeader(attributes, variables);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid NetCDF classic header: " + e.getMessage(), e);
+        }
+    }
+
+    public Map<String, Object> getAttributes() {
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    public Collection<Variable> getVariables() {
+        return Collections.unmodifiableCollection(variables.values());
+    }
+
+    public Variable getVariable(String name) {
+        return variables.get(name);
+    }
+
+    /**
+     * Returns the size in bytes of a single value of the given NetCDF type.
+     *
+     * @param type The NetCDF type.
+     * @return The size in bytes.
+     */
+    public static int getTypeSize(int type) {
+        switch (type) {
+            case NC_BYTE:
+            case NC_CHAR:
+                return 1;
+            case NC_SHORT:
+                return 2;
+            case NC_INT:
+            case NC_FLOAT:
+                return 4;
+            case NC_DOUBLE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown NetCDF type " + type);
+        }
+    }
+
+    private static int readListHeader(ByteBuffer header, int expectedTag) throws IOException {
+        int tag = header.getInt();
+        int count = header.getInt();
+        if (tag == 0 && count == 0) {
+            return 0;
+        }
+        if (tag != expectedTag) {
+            throw new IOException("Unexpected tag " + tag + ", expected " + expectedTag);
+        }
+        return count;
+    }
+
+    private static Map<String, Object> readAttributes(ByteBuffer header) throws IOException {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        int attributeCount = readListHeader(header, NC_ATTRIBUTE);
+        for (int i = 0; i < attributeCount; i++) {
+            String name = readName(header);
+            int type = header.getInt();
+            int count = header.getInt();
+            Object value;
+            switch (type) {
+                case NC_CHAR: {
+                    byte[] chars = new byte[count];
+                    header.get(chars);
+                    value = new String(chars, StandardCharsets.UTF_8).trim();
+                    break;
+                }
+                case NC_BYTE: {
+                    byte[] values = new byte[count];
+                    header.get(values);
+                    value = count == 1 ? (Object) values[0] : values;
+                    break;
+                }
+                case NC_SHORT: {
+                    short[] values = new short[count];
+                    header.asShortBuffer().get(values);
+                    header.position(header.position() + 2 * count);
+                    value = count == 1 ? (Object) values[0] : values;
+                    break;
+                }
+                case NC_INT: {
+                    int[] values = new int[count];
+                    header.asIntBuffer().get(values);
+                    header.position(header.position() + 4 * count);
+                    value = count == 1 ? (Object) values[0] : values;
+                    break;
+                }
+                case NC_FLOAT: {
+                    float[] values = new float[count];
+                    header.asFloatBuffer().get(values);
+                    header.position(header.position() + 4 * count);
+                    value = count == 1 ? (Object) values[0] : values;
+                    break;
+                }
+                case NC_DOUBLE: {
+                    double[] values = new double[count];
+                    header.asDoubleBuffer().get(values);
+                    header.position(header.position() + 8 * count);
+                    value = count == 1 ? (Object) values[0] : values;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown type " + type + " of attribute " + name);
+            }
+            skipPadding(header, count * getTypeSize(type));
+            attributes.put(name, value);
+        }
+        return attributes;
+    }
+
+    private static String readName(ByteBuffer header) {
+        int length = header.getInt();
+        byte[] name = new byte[length];
+        header.get(name);
+        skipPadding(header, length);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static void skipPadding(ByteBuffer header, int length) {
+        int remainder = length % 4;
+        if (remainder != 0) {
+            header.position(header.position() + 4 - remainder);
+        }
+    }
+
+    /**
+     * A variable of a NetCDF classic file.
+     */
+    public static class Variable {
+
+        private final String name;
+        private final int type;
+        private final String[] dimensionNames;
+        private final int[] shape;
+        private final boolean record;
+        private final long begin;
+        private final Map<String, Object> attributes;
+
+        Variable(String name, int type, String[] dimensionNames, int[] shape, boolean record, long begin,
+                 Map<String, Object> attributes) {
+            this.name = name;
+            this.type = type;
+            this.dimensionNames = dimensionNames;
+            this.shape = shape;
+            this.record = record;
+            this.begin = begin;
+            this.attributes = attributes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String[] getDimensionNames() {
+            return dimensionNames.clone();
+        }
+
+        public int[] getShape() {
+            return shape.clone();
+        }
+
+        /**
+         * @return <code>true</code> if the variable uses the unlimited dimension. The data of record variables
+         * is interleaved and cannot be located by {@link #getBegin()} alone.
+         */
+        public boolean isRecord() {
+            return record;
+        }
+
+        /**
+         * @return The file offset of the first value of the variable.
+         */
+        public long getBegin() {
+            return begin;
+        }
+
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+    }
+}
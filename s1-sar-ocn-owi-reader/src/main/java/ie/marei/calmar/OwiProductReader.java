@@ -0,0 +1,366 @@
+package ie.marei.calmar;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.AbstractProductReader;
+import org.esa.snap.core.dataio.ProductReaderPlugIn;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>OwiProductReader</code> reads the owi variables of Sentinel-1 Level-2 OCN products, which are needed
+ * by the Calmar operators, without the full Sentinel-1 reader stack.
+ * <p/>
+ * The measurement files are memory-mapped and only their headers are parsed when the product is opened. Raster
+ * data is read directly from the mapped files when a tile is requested, so only the pages of the requested
+ * rectangles are loaded by the operating system. Only NetCDF classic and 64-bit offset measurement files are
+ * supported, NetCDF-4/HDF5 files are rejected.
+ * <p/>
+ * Zipped SAFE products are read in place. The central directory of the archive is cached by {@link ZipArchive},
+ * only the headers of the measurement files are inflated when the product is opened, and a measurement file is
+ * mapped or inflated when the first band of it is read. A deflated measurement file is only inflated up to the end
+ * of the last owi variable read from it, which must lie within the first 2 GB of the file.
+ */
+public class OwiProductReader extends AbstractProductReader {
+
+    static final String PRODUCT_TYPE = "S1_OCN_OWI";
+
+    /**
+     * The owi variables used by <code>OwiParameters</code>.
+     */
+    static final String[] OWI_VARIABLE_NAMES = {
+            "owiLat", "owiLon", "owiWindSpeed", "owiWindDirection", "owiWindQuality", "owiLandFlag", "owiMask",
+            "owiIncidenceAngle"
+    };
+
+    private static final int HEADER_PREFIX_SIZE = 64 * 1024;
+
+    private final Map<Band, BandSource> bandSources = new HashMap<>();
+
+    public OwiProductReader(ProductReaderPlugIn readerPlugIn) {
+        super(readerPlugIn);
+    }
+
+    @Override
+    protected Product readProductNodesImpl() throws IOException {
+        File input = OwiProductReaderPlugIn.toFile(getInput());
+        if (input == null) {
+            throw new IOException("Unsupported input " + getInput());
+        }
+        List<Measurement> measurements = new ArrayList<>();
+        if (OwiProductReaderPlugIn.isZipArchive(input)) {
+            ZipArchive archive = ZipArchive.open(input);
+            for (String entryName : OwiProductReaderPlugIn.findMeasurementEntries(archive)) {
+                measurements.add(new Measurement(new File(entryName), archive, archive.getEntry(entryName)));
+            }
+        } else {
+            for (File measurementFile : OwiProductReaderPlugIn.findMeasurementFiles(input)) {
+                measurements.add(new Measurement(measurementFile, map(measurementFile)));
+            }
+        }
+        if (measurements.isEmpty()) {
+            throw new IOException("No Sentinel-1 Level-2 OCN measurement file found in " + input);
+        }
+
+        Product product = null;
+        for (Measurement measurement : measurements) {
+            File measurementFile = measurement.file;
+            NetcdfClassicHeader header;
+            try {
+                header = measurement.readHeader();
+            } catch (IOException e) {
+                throw new IOException("Cannot read measurement file " + measurementFile.getName() + " of " + input +
+                        ": " + e.getMessage(), e);
+            }
+            String bandNamePrefix = OwiProductReaderPlugIn.getBandNamePrefix(measurementFile);
+            for (String variableName : OWI_VARIABLE_NAMES) {
+                NetcdfClassicHeader.Variable variable = header.getVariable(variableName);
+                if (variable == null || variable.isRecord() || variable.getShape().length != 2 ||
+                        variable.getType() == NetcdfClassicHeader.NC_CHAR) {
+                    continue;
+                }
+                int width = variable.getShape()[1];
+                int height = variable.getShape()[0];
+                if (product == null) {
+                    product = createProduct(input, header, width, height);
+                } else if (width != product.getSceneRasterWidth() || height != product.getSceneRasterHeight()) {
+                    SystemUtils.LOG.warning("Skipping " + variableName + " of " + measurementFile.getName() +
+                            ": raster size differs from product");
+                    continue;
+                }
+                Band band = createBand(bandNamePrefix + variableName, variable, width, height);
+                product.addBand(band);
+                bandSources.put(band, new BandSource(measurement, variable));
+                measurement.require(variable);
+            }
+        }
+        if (product == null) {
+            throw new IOException("No owi variables found in " + input);
+        }
+        return product;
+    }
+
+    @Override
+    protected void readBandRasterDataImpl(int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                                          int sourceStepX, int sourceStepY, Band destBand, int destOffsetX,
+                                          int destOffsetY, int destWidth, int destHeight, ProductData destBuffer,
+                                          ProgressMonitor pm) throws IOException {
+        BandSource bandSource = bandSources.get(destBand);
+        if (bandSource == null) {
+            throw new IOException("Unknown band " + destBand.getName());
+        }
+        NetcdfClassicHeader.Variable variable = bandSource.variable;
+        int type = variable.getType();
+        int typeSize = NetcdfClassicHeader.getTypeSize(type);
+        int rasterWidth = variable.getShape()[1];
+        ByteBuffer data = bandSource.measurement.getData().duplicate().order(ByteOrder.BIG_ENDIAN);
+        Object elems = destBuffer.getElems();
+
+        pm.beginTask("Reading band '" + destBand.getName() + "'...", destHeight);
+        try {
+            for (int j = 0; j < destHeight; j++) {
+                int y = sourceOffsetY + j * sourceStepY;
+                int rowOffset = (int) (variable.getBegin() + ((long) y * rasterWidth + sourceOffsetX) * typeSize);
+                int destPos = j * destWidth;
+                if (sourceStepX == 1) {
+                    data.position(rowOffset);
+                    readRow(data, type, elems, destPos, destWidth);
+                } else {
+                    for (int i = 0; i < destWidth; i++) {
+                        int offset = rowOffset + i * sourceStepX * typeSize;
+                        readValue(data, type, offset, elems, destPos + i);
+                    }
+                }
+                pm.worked(1);
+            }
+        } finally {
+            pm.done();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        bandSources.clear();
+        super.close();
+    }
+
+    private Product createProduct(File input, NetcdfClassicHeader header, int width, int height) {
+        String productName = input.getName();
+        if (productName.equalsIgnoreCase("manifest.safe") && input.getParentFile() != null) {
+            productName = input.getParentFile().getName();
+        }
+        productName = productName.replaceFirst("(?i)\\.(safe|nc|zip)$", "").replaceFirst("(?i)\\.safe$", "");
+
+        Product product = new Product(productName, PRODUCT_TYPE, width, height, this);
+        product.setFileLocation(input);
+        product.setStartTime(parseTime(header.getAttributes().get("firstMeasurementTime")));
+        product.setEndTime(parseTime(header.getAttributes().get("lastMeasurementTime")));
+
+        MetadataElement globalAttributes = new MetadataElement("Global_Attributes");
+        for (Map.Entry<String, Object> attribute : header.getAttributes().entrySet()) {
+            if (attribute.getValue() instanceof String) {
+                globalAttributes.setAttributeString(attribute.getKey(), (String) attribute.getValue());
+            }
+        }
+        product.getMetadataRoot().addElement(globalAttributes);
+        return product;
+    }
+
+    private static Band createBand(String bandName, NetcdfClassicHeader.Variable variable, int width, int height) {
+        Band band = new Band(bandName, getDataType(variable.getType()), width, height);
+        Object fillValue = variable.getAttribute("_FillValue");
+        if (fillValue instanceof Number) {
+            band.setNoDataValue(((Number) fillValue).doubleValue());
+            band.setNoDataValueUsed(true);
+        }
+        Object scaleFactor = variable.getAttribute("scale_factor");
+        if (scaleFactor instanceof Number) {
+            band.setScalingFactor(((Number) scaleFactor).doubleValue());
+        }
+        Object addOffset = variable.getAttribute("add_offset");
+        if (addOffset instanceof Number) {
+            band.setScalingOffset(((Number) addOffset).doubleValue());
+        }
+        Object units = variable.getAttribute("units");
+        if (units instanceof String) {
+            band.setUnit((String) units);
+        }
+        Object longName = variable.getAttribute("long_name");
+        if (longName instanceof String) {
+            band.setDescription((String) longName);
+        }
+        return band;
+    }
+
+    private static int getDataType(int type) {
+        switch (type) {
+            case NetcdfClassicHeader.NC_BYTE:
+                return ProductData.TYPE_INT8;
+            case NetcdfClassicHeader.NC_SHORT:
+                return ProductData.TYPE_INT16;
+            case NetcdfClassicHeader.NC_INT:
+                return ProductData.TYPE_INT32;
+            case NetcdfClassicHeader.NC_FLOAT:
+                return ProductData.TYPE_FLOAT32;
+            case NetcdfClassicHeader.NC_DOUBLE:
+                return ProductData.TYPE_FLOAT64;
+            default:
+                throw new IllegalArgumentException("Unsupported NetCDF type " + type);
+        }
+    }
+
+    private static void readRow(ByteBuffer data, int type, Object elems, int destPos, int length) {
+        switch (type) {
+            case NetcdfClassicHeader.NC_BYTE:
+                data.get((byte[]) elems, destPos, length);
+                break;
+            case NetcdfClassicHeader.NC_SHORT:
+                data.asShortBuffer().get((short[]) elems, destPos, length);
+                break;
+            case NetcdfClassicHeader.NC_INT:
+                data.asIntBuffer().get((int[]) elems, destPos, length);
+                break;
+            case NetcdfClassicHeader.NC_FLOAT:
+                data.asFloatBuffer().get((float[]) elems, destPos, length);
+                break;
+            case NetcdfClassicHeader.NC_DOUBLE:
+                data.asDoubleBuffer().get((double[]) elems, destPos, length);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported NetCDF type " + type);
+        }
+    }
+
+    private static void readValue(ByteBuffer data, int type, int offset, Object elems, int destPos) {
+        switch (type) {
+            case NetcdfClassicHeader.NC_BYTE:
+                ((byte[]) elems)[destPos] = data.get(offset);
+                break;
+            case NetcdfClassicHeader.NC_SHORT:
+                ((short[]) elems)[destPos] = data.getShort(offset);
+                break;
+            case NetcdfClassicHeader.NC_INT:
+                ((int[]) elems)[destPos] = data.getInt(offset);
+                break;
+            case NetcdfClassicHeader.NC_FLOAT:
+                ((float[]) elems)[destPos] = data.getFloat(offset);
+                break;
+            case NetcdfClassicHeader.NC_DOUBLE:
+                ((double[]) elems)[destPos] = data.getDouble(offset);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported NetCDF type " + type);
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static ProductData.UTC parseTime(Object time) {
+        if (!(time instanceof String) || ((String) time).length() < 19) {
+            return null;
+        }
+        try {
+            return ProductData.UTC.parse(((String) time).substring(0, 19), "yyyy-MM-dd'T'HH:mm:ss");
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A measurement file, either memory-mapped from the file system or an entry of a zipped SAFE product, which is
+     * read when its data is first needed.
+     */
+    private static class Measurement {
+
+        private final File file;
+        private final ZipArchive archive;
+        private final ZipArchive.Entry entry;
+        private long requiredSize;
+        private ByteBuffer data;
+
+        Measurement(File file, ByteBuffer data) {
+            this.file = file;
+            this.archive = null;
+            this.entry = null;
+            this.data = data;
+        }
+
+        Measurement(File file, ZipArchive archive, ZipArchive.Entry entry) {
+            this.file = file;
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        /**
+         * Parses the header. For a zip entry only the start of the entry is read, growing until it holds the
+         * complete header.
+         */
+        NetcdfClassicHeader readHeader() throws IOException {
+            if (archive == null) {
+                return NetcdfClassicHeader.parse(data);
+            }
+            int prefixSize = HEADER_PREFIX_SIZE;
+            while (true) {
+                ByteBuffer prefix = archive.readPrefix(entry, prefixSize);
+                try {
+                    return NetcdfClassicHeader.parse(prefix);
+                } catch (IOException e) {
+                    boolean truncated = e.getCause() instanceof BufferUnderflowException ||
+                            e.getCause() instanceof IndexOutOfBoundsException;
+                    if (!truncated || prefix.limit() >= entry.getSize()) {
+                        throw e;
+                    }
+                    prefixSize = (int) Math.min(4L * prefixSize, entry.getSize());
+                }
+            }
+        }
+
+        /**
+         * Extends the part of a zip entry which is read to the end of the given variable.
+         */
+        void require(NetcdfClassicHeader.Variable variable) {
+            long size = NetcdfClassicHeader.getTypeSize(variable.getType());
+            for (int length : variable.getShape()) {
+                size *= length;
+            }
+            requiredSize = Math.max(requiredSize, variable.getBegin() + size);
+        }
+
+        synchronized ByteBuffer getData() throws IOException {
+            if (data == null) {
+                data = archive.read(entry, requiredSize);
+            }
+            return data;
+        }
+    }
+
+    private static class BandSource {
+
+        private final Measurement measurement;
+        private final NetcdfClassicHeader.Variable variable;
+
+        BandSource(Measurement measurement, NetcdfClassicHeader.Variable variable) {
+            this.measurement = measurement;
+            this.variable = variable;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.dataio.DecodeQualification;
+import org.esa.snap.core.dataio.ProductReader;
+import org.esa.snap.core.dataio.ProductReaderPlugIn;
+import org.esa.snap.core.util.io.SnapFileFilter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The <code>OwiProductReaderPlugIn</code> provides the {@link OwiProductReader}, a lightweight reader for the owi
+ * variables of Sentinel-1 Level-2 OCN products.
+ * <p/>
+ * Accepted inputs are a SAFE directory, its manifest.safe file, a zipped SAFE product as distributed by ESA, or a
+ * single OCN measurement file. The measurement files must be NetCDF classic or 64-bit offset files. Zipped products
+ * are read in place, without extracting them. A single measurement file and a zipped SAFE product containing an OCN
+ * measurement file are decoded as intended, so that zipped OCN products as distributed by ESA are read without
+ * extraction by default. An unzipped SAFE product is decoded only as suitable, so that the full Sentinel-1 reader
+ * remains the default for it. Bulk processing selects this reader with the format name {@value #FORMAT_NAME}.
+ */
+public class OwiProductReaderPlugIn implements ProductReaderPlugIn {
+
+    public static final String FORMAT_NAME = "S1-OCN-OWI";
+
+    private static final String[] DEFAULT_FILE_EXTENSIONS = {".nc", ".safe", ".zip"};
+    private static final String DESCRIPTION = "Sentinel-1 Level-2 OCN owi variables (memory-mapped)";
+    private static final Pattern MEASUREMENT_FILE_PATTERN =
+            Pattern.compile("s1[a-d]-[a-z0-9]+-ocn-([a-z]{2})-.*-(\\d{3})\\.nc", Pattern.CASE_INSENSITIVE);
+
+    @Override
+    public DecodeQualification getDecodeQualification(Object input) {
+        File file = toFile(input);
+        if (file == null) {
+            return DecodeQualification.UNABLE;
+        }
+        if (isZipArchive(file)) {
+            return getZipDecodeQualification(file);
+        }
+        List<File> measurementFiles = findMeasurementFiles(file);
+        if (measurementFiles.isEmpty()) {
+            return DecodeQualification.UNABLE;
+        }
+        for (File measurementFile : measurementFiles) {
+            if (!isClassicNetcdf(measurementFile)) {
+                return DecodeQualification.UNABLE;
+            }
+        }
+        return file.isFile() && isMeasurementFile(file) ? DecodeQualification.INTENDED : DecodeQualification.SUITABLE;
+    }
+
+    @Override
+    public Class[] getInputTypes() {
+        return new Class[]{String.class, File.class, Path.class};
+    }
+
+    @Override
+    public ProductReader createReaderInstance() {
+        return new OwiProductReader(this);
+    }
+
+    @Override
+    public String[] getFormatNames() {
+        return new String[]{FORMAT_NAME};
+    }
+
+    @Override
+    public String[] getDefaultFileExtensions() {
+        return DEFAULT_FILE_EXTENSIONS.clone();
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return DESCRIPTION;
+    }
+
+    @Override
+    public SnapFileFilter getProductFileFilter() {
+        return new SnapFileFilter(FORMAT_NAME, getDefaultFileExtensions(), getDescription(null));
+    }
+
+    static File toFile(Object input) {
+        if (input instanceof File) {
+            return (File) input;
+        } else if (input instanceof Path) {
+            return ((Path) input).toFile();
+        } else if (input instanceof String) {
+            return new File((String) input);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the OCN measurement files of the given input.
+     *
+     * @param input A SAFE directory, a manifest.safe file, or a measurement file.
+     * @return The measurement files, sorted by name. The list is empty if none were found.
+     */
+    static List<File> findMeasurementFiles(File input) {
+        List<File> measurementFiles = new ArrayList<>();
+        if (input.isFile() && isMeasurementFile(input)) {
+            measurementFiles.add(input);
+            return measurementFiles;
+        }
+        File safeDir = input;
+        if (input.isFile() && input.getName().equalsIgnoreCase("manifest.safe")) {
+            safeDir = input.getParentFile();
+        }
+        File[] files = safeDir != null ? new File(safeDir, "measurement").listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && isMeasurementFile(file)) {
+                    measurementFiles.add(file);
+                }
+            }
+        }
+        measurementFiles.sort(null);
+        return measurementFiles;
+    }
+
+    /**
+     * Returns true if the given file is a zip archive, e.g. a zipped SAFE product.
+     */
+    static boolean isZipArchive(File file) {
+        return file.isFile() && file.getName().toLowerCase(Locale.ENGLISH).endsWith(".zip");
+    }
+
+    /**
+     * Finds the OCN measurement files in the measurement directory of a zipped SAFE product.
+     *
+     * @param archive The zipped SAFE product.
+     * @return The entry names of the measurement files, sorted by name. The list is empty if none were found.
+     */
+    static List<String> findMeasurementEntries(ZipArchive archive) {
+        List<String> measurementEntries = new ArrayList<>();
+        for (String entryName : archive.getEntryNames()) {
+            File entryFile = new File(entryName);
+            File entryDir = entryFile.getParentFile();
+            if (entryDir != null && entryDir.getName().equals("measurement") && isMeasurementFile(entryFile)) {
+                measurementEntries.add(entryName);
+            }
+        }
+        measurementEntries.sort(null);
+        return measurementEntries;
+    }
+
+    /**
+     * Returns the prefix of the band names for the given measurement file, in the form used by the Sentinel-1
+     * reader, e.g. "vv_001_".
+     *
+     * @param measurementFile The measurement file.
+     * @return The band name prefix.
+     */
+    static String getBandNamePrefix(File measurementFile) {
+        Matcher matcher = MEASUREMENT_FILE_PATTERN.matcher(measurementFile.getName());
+        if (!matcher.matches()) {
+            return "";
+        }
+        return matcher.group(1).toLowerCase(Locale.ENGLISH) + "_" + matcher.group(2) + "_";
+    }
+
+    private static boolean isMeasurementFile(File file) {
+        return MEASUREMENT_FILE_PATTERN.matcher(file.getName()).matches();
+    }
+
+    private static DecodeQualification getZipDecodeQualification(File file) {
+        try {
+            ZipArchive archive = ZipArchive.open(file);
+            List<String> measurementEntries = findMeasurementEntries(archive);
+            if (measurementEntries.isEmpty()) {
+                return DecodeQualification.UNABLE;
+            }
+            for (String measurementEntry : measurementEntries) {
+                ByteBuffer prefix = archive.readPrefix(archive.getEntry(measurementEntry), 4);
+                byte[] magic = new byte[4];
+                if (prefix.remaining() < magic.length) {
+                    return DecodeQualification.UNABLE;
+                }
+                prefix.get(magic);
+                if (!NetcdfClassicHeader.isClassicFormat(magic)) {
+                    return DecodeQualification.UNABLE;
+                }
+            }
+            return DecodeQualification.INTENDED;
+        } catch (IOException e) {
+            return DecodeQualification.UNABLE;
+        }
+    }
+
+    private static boolean isClassicNetcdf(File file) {
+        byte[] magic = new byte[4];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return inputStream.read(magic) == magic.length && NetcdfClassicHeader.isClassicFormat(magic);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package ie.marei.calmar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The <code>ZipArchive</code> gives direct access to the entries of a zip archive, such as a zipped Sentinel-1
+ * SAFE product, without extracting it.
+ * <p/>
+ * The central directory of an archive is read once and cached for the process, keyed by the archive path and
+ * checked against its size and modification time. Stored entries are memory-mapped from the archive, deflated
+ * entries are inflated into direct buffers. Only the requested entries are read, and of an entry only the requested
+ * leading bytes, see {@link #read(Entry, long)}.
+ * <p/>
+ * The data read from one entry is held in a single buffer, so at most the first 2 GB of an entry can be read.
+ */
+public class ZipArchive {
+
+    private static final int MAX_CACHED_ARCHIVES = 64;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final Map<String, ZipArchive> CACHE = new LinkedHashMap<String, ZipArchive>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ZipArchive> eldest) {
+            return size() > MAX_CACHED_ARCHIVES;
+        }
+    };
+
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final Map<String, Entry> entries;
+
+    private ZipArchive(File file, long length, long lastModified, Map<String, Entry> entries) {
+        this.file = file;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens the zip archive. The central directory is read only if the archive is not yet cached or has changed.
+     *
+     * @param file The zip archive.
+     * @return The zip archive.
+     * @throws IOException If the archive cannot be read or is not a valid zip archive.
+     */
+    public static ZipArchive open(File file) throws IOException {
+        File absoluteFile = file.getAbsoluteFile();
+        String key = absoluteFile.getPath();
+        long length = absoluteFile.length();
+        long lastModified = absoluteFile.lastModified();
+        synchronized (CACHE) {
+            ZipArchive archive = CACHE.get(key);
+            if (archive != null && archive.length == length && archive.lastModified == lastModified) {
+                return archive;
+            }
+        }
+        ZipArchive archive = new ZipArchive(absoluteFile, length, lastModified, readCentralDirectory(absoluteFile));
+        synchronized (CACHE) {
+            CACHE.put(key, archive);
+        }
+        return archive;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the names of all entries, in the order of the central directory.
+     */
+    public List<String> getEntryNames() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Reads the first bytes of an entry.
+     *
+     * @param entry The entry.
+     * @param count The maximum number of bytes.
+     * @return The bytes, fewer than <code>count</code> if the entry is shorter.
+     * @throws IOException If the entry cannot be read.
+     */
+    public ByteBuffer readPrefix(Entry entry, int count) throws IOException {
+        return read(entry, count);
+    }
+
+    /**
+     * Reads an entry. A stored entry is memory-mapped from the archive, a deflated entry is inflated into a direct
+     * buffer.
+     *
+     * @param entry The entry.
+     * @return The entry data.
+     * @throws IOException If the entry cannot be read or is larger than 2 GB.
+     */
+    public ByteBuffer read(Entry entry) throws IOException {
+        return read(entry, entry.size);
+    }
+
+    /**
+     * Reads the leading bytes of an entry. A stored entry is memory-mapped from the archive, a deflated entry is
+     * inflated into a direct buffer up to the given size only, so the rest of the entry is neither inflated nor
+     * held in memory. A large entry can be read as long as the bytes needed from it are within its first 2 GB.
+     *
+     * @param entry The entry.
+     * @param size  The number of bytes to read from the start of the entry.
+     * @return The data, fewer than <code>size</code> bytes if the entry is shorter.
+     * @throws IOException If the entry cannot be read, or the size exceeds 2 GB.
+     */
+    public ByteBuffer read(Entry entry, long size) throws IOException {
+        size = Math.min(size, entry.size);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Cannot read more than 2 GB of zip entry " + entry.name + ": " + size + " bytes");
+        }
+        if (entry.method == METHOD_STORED) {
+            return map(entry, size);
+        }
+        return inflate(entry, (int) size);
+    }
+
+    private ByteBuffer map(Entry entry, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, getDataOffset(channel, entry), size);
+        }
+    }
+
+    private ByteBuffer inflate(Entry entry, int size) throws IOException {
+        ByteBuffer data = ByteBuffer.allocateDirect(size);
+        byte[] buffer = new byte[64 * 1024];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.position(getDataOffset(channel, entry));
+            Inflater inflater = new Inflater(true);
+            try (InputStream inputStream = new InflaterInputStream(Channels.newInputStream(channel), inflater)) {
+                while (data.hasRemaining()) {
+                    int count = inputStream.read(buffer, 0, Math.min(buffer.length, data.remaining()));
+                    if (count < 0) {
+                        throw new IOException("Unexpected end of zip entry " + entry.name);
+                    }
+                    data.put(buffer, 0, count);
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    private static long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer localHeader = readFully(channel, entry.localHeaderOffset, 30);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local header of zip entry " + entry.name);
+        }
+        int nameLength = localHeader.getShort(26) & 0xFFFF;
+        int extraLength = localHeader.getShort(28) & 0xFFFF;
+        return entry.localHeaderOffset + 30 + nameLength + extraLength;
+    }
+
+    private static Map<String, Entry> readCentralDirectory(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+                throw new IOException("Not a zip archive: " + file);
+            }
+
+            // find the end of central directory record, which is followed by a comment of up to 64 KB
+            int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+            long tailOffset = fileSize - tailSize;
+            ByteBuffer tail = readFully(channel, tailOffset, tailSize);
+            int endOffset = -1;
+            for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    endOffset = i;
+                    break;
+                }
+            }
+            if (endOffset < 0) {
+                throw new IOException("Not a zip archive: " + file);
+            }
+            long entryCount = tail.getShort(endOffset + 10) & 0xFFFF;
+            long directorySize = tail.getInt(endOffset + 12) & ZIP64_MAGIC;
+            long directoryOffset = tail.getInt(endOffset + 16) & ZIP64_MAGIC;
+
+            // zip64 end of central directory record
+            if (directoryOffset == ZIP64_MAGIC || directorySize == ZIP64_MAGIC || entryCount == 0xFFFF) {
+                long locatorOffset = tailOffset + endOffset - 20;
+                ByteBuffer locator = readFully(channel, locatorOffset, 20);
+                if (locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+                    throw new IOException("Invalid zip64 archive: " + file);
+                }
+                ByteBuffer zip64End = readFully(channel, locator.getLong(8), 56);
+                if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new IOException("Invalid zip64 archive: " + file);
+                }
+                entryCount = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+            if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > fileSize) {
+                throw new IOException("Invalid zip central directory: " + file);
+            }
+
+            ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            int position = 0;
+            for (long i = 0; i < entryCount; i++) {
+                if (directory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new IOException("Invalid zip central directory: " + file);
+                }
+                int method = directory.getShort(position + 10) & 0xFFFF;
+                long compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+                long size = directory.getInt(position + 24) & ZIP64_MAGIC;
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                long localHeaderOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+                byte[] nameBytes = new byte[nameLength];
+                ((ByteBuffer) directory.duplicate().position(position + 46)).get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+                // zip64 extended information, holding the values which are 0xFFFFFFFF in the record
+                int extraPosition = position + 46 + nameLength;
+                int extraEnd = extraPosition + extraLength;
+                while (extraPosition + 4 <= extraEnd) {
+                    int headerId = directory.getShort(extraPosition) & 0xFFFF;
+                    int dataSize = directory.getShort(extraPosition + 2) & 0xFFFF;
+                    if (headerId == 0x0001) {
+                        int valuePosition = extraPosition + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = directory.getLong(valuePosition);
+                            valuePosition += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = directory.getLong(valuePosition);
+                            valuePosition += 8;
+                        }
+                        if (localHeaderOffset == ZIP64_MAGIC) {
+                            localHeaderOffset = directory.getLong(valuePosition);
+                        }
+                    }
+                    extraPosition += 4 + dataSize;
+                }
+
+                if (method == METHOD_STORED || method == METHOD_DEFLATED) {
+                    entries.put(name, new Entry(name, method, compressedSize, size, localHeaderOffset));
+                }
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+            return entries;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of zip archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * An entry of the zip archive, as found in the central directory.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public boolean isStored() {
+            return method == METHOD_STORED;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ie.marei.calmar;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class NetcdfClassicHeaderTest {
+
+    @Test
+    public void testParse() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(createOwiFile());
+        NetcdfClassicHeader header = NetcdfClassicHeader.parse(buffer);
+
+        assertEquals("2021-01-01T06:00:00.000000", header.getAttributes().get("firstMeasurementTime"));
+        assertEquals(2, header.getVariables().size());
+
+        NetcdfClassicHeader.Variable owiLat = header.getVariable("owiLat");
+        assertEquals(NetcdfClassicHeader.NC_FLOAT, owiLat.getType());
+        assertArrayEquals(new int[]{2, 3}, owiLat.getShape());
+        assertFalse(owiLat.isRecord());
+        assertEquals("degrees_north", owiLat.getAttribute("units"));
+        assertEquals(2.0f, owiLat.getAttribute("scale_factor"));
+        assertEquals(1.5f, buffer.getFloat((int) owiLat.getBegin() + 4), 0.0f);
+
+        NetcdfClassicHeader.Variable owiLandFlag = header.getVariable("owiLandFlag");
+        assertEquals(NetcdfClassicHeader.NC_BYTE, owiLandFlag.getType());
+        assertEquals((byte) -127, owiLandFlag.getAttribute("_FillValue"));
+        assertEquals(1, buffer.get((int) owiLandFlag.getBegin() + 5));
+    }
+
+    @Test(expected = IOException.class)
+    public void testParse_notClassic() throws Exception {
+        byte[] hdf5 = {(byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n'};
+        NetcdfClassicHeader.parse(ByteBuffer.wrap(hdf5));
+    }
+
+    @Test
+    public void testGetBandNamePrefix() {
+        File measurementFile = new File("s1a-iw-ocn-vv-20210101t060000-20210101t060025-035950-0436b0-001.nc");
+        assertEquals("vv_001_", OwiProductReaderPlugIn.getBandNamePrefix(measurementFile));
+        assertEquals("", OwiProductReaderPlugIn.getBandNamePrefix(new File("owi.nc")));
+    }
+
+    /**
+     * Creates a NetCDF classic file with a 2 x 3 float variable owiLat holding 0.0, 1.5, 3.0, ..., with scale factor
+     * 2.0 and add offset -1.0, and a 2 x 3 byte variable owiLandFlag which is 1 for the last pixel.
+     */
+    static byte[] createOwiFile() throws IOException {
+        int headerSize = createHeader(0, 0).length;
+        int latBegin = headerSize;
+        int landFlagBegin = latBegin + 6 * 4;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(createHeader(latBegin, landFlagBegin));
+        for (int i = 0; i < 6; i++) {
+            out.writeFloat(i * 1.5f);
+        }
+        out.write(new byte[]{0, 0, 0, 0, 0, 1, 0, 0});
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] createHeader(int latBegin, int landFlagBegin) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[]{'C', 'D', 'F', 1});
+        out.writeInt(0);
+
+        // dimensions
+        out.writeInt(0x0A);
+        out.writeInt(2);
+        writeName(out, "owiAzSize");
+        out.writeInt(2);
+        writeName(out, "owiRaSize");
+        out.writeInt(3);
+
+        // global attributes
+        out.writeInt(0x0C);
+        out.writeInt(1);
+        writeName(out, "firstMeasurementTime");
+        writeText(out, "2021-01-01T06:00:00.000000");
+
+        // variables
+        out.writeInt(0x0B);
+        out.writeInt(2);
+        writeName(out, "owiLat");
+        out.writeInt(2);
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeInt(0x0C);
+        out.writeInt(3);
+        writeName(out, "units");
+        writeText(out, "degrees_north");
+        writeName(out, "scale_factor");
+        out.writeInt(NetcdfClassicHeader.NC_FLOAT);
+        out.writeInt(1);
+        out.writeFloat(2.0f);
+        writeName(out, "add_offset");
+        out.writeInt(NetcdfClassicHeader.NC_FLOAT);
+        out.writeInt(1);
+        out.writeFloat(-1.0f);
+        out.writeInt(NetcdfClassicHeader.NC_FLOAT);
+        out.writeInt(24);
+        out.writeInt(latBegin);
+
+        writeName(out, "owiLandFlag");
+        out.writeInt(2);
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeInt(0x0C);
+        out.writeInt(1);
+        writeName(out, "_FillValue");
+        out.writeInt(NetcdfClassicHeader.NC_BYTE);
+        out.writeInt(1);
+        out.write(new byte[]{-127, 0, 0, 0});
+        out.writeInt(NetcdfClassicHeader.NC_BYTE);
+        out.writeInt(8);
+        out.writeInt(landFlagBegin);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] chars = name.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(chars.length);
+        out.write(chars);
+        while (out.size() % 4 != 0) {
+            out.write(0);
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        out.writeInt(NetcdfClassicHeader.NC_CHAR);
+        writeName(out, text);
+    }
+}
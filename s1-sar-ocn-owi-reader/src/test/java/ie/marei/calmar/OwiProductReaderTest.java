@@ -0,0 +1,102 @@
+package ie.marei.calmar;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.DecodeQualification;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class OwiProductReaderTest {
+
+    private static final String MEASUREMENT_FILE_NAME =
+            "s1a-iw-ocn-vv-20210101t060000-20210101t060025-035950-0436b0-001.nc";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadProductNodes() throws Exception {
+        File file = createMeasurementFile(NetcdfClassicHeaderTest.createOwiFile());
+        Product product = readProduct(file);
+
+        assertEquals(OwiProductReader.PRODUCT_TYPE, product.getProductType());
+        assertEquals(3, product.getSceneRasterWidth());
+        assertEquals(2, product.getSceneRasterHeight());
+        assertArrayEquals(new String[]{"vv_001_owiLat", "vv_001_owiLandFlag"}, product.getBandNames());
+
+        Band owiLat = product.getBand("vv_001_owiLat");
+        assertEquals(ProductData.TYPE_FLOAT32, owiLat.getDataType());
+        assertEquals("degrees_north", owiLat.getUnit());
+        assertEquals(2.0, owiLat.getScalingFactor(), 0.0);
+        assertEquals(-1.0, owiLat.getScalingOffset(), 0.0);
+        assertFalse(owiLat.isNoDataValueUsed());
+
+        Band owiLandFlag = product.getBand("vv_001_owiLandFlag");
+        assertEquals(ProductData.TYPE_INT8, owiLandFlag.getDataType());
+        assertTrue(owiLandFlag.isNoDataValueUsed());
+        assertEquals(-127.0, owiLandFlag.getNoDataValue(), 0.0);
+    }
+
+    @Test
+    public void testReadBandRasterData() throws Exception {
+        File file = createMeasurementFile(NetcdfClassicHeaderTest.createOwiFile());
+        OwiProductReader reader = (OwiProductReader) new OwiProductReaderPlugIn().createReaderInstance();
+        Product product = reader.readProductNodes(file, null);
+
+        ProductData latData = ProductData.createInstance(ProductData.TYPE_FLOAT32, 6);
+        reader.readBandRasterData(product.getBand("vv_001_owiLat"), 0, 0, 3, 2, latData, ProgressMonitor.NULL);
+        assertArrayEquals(new float[]{0.0f, 1.5f, 3.0f, 4.5f, 6.0f, 7.5f}, (float[]) latData.getElems(), 0.0f);
+
+        ProductData latRowData = ProductData.createInstance(ProductData.TYPE_FLOAT32, 2);
+        reader.readBandRasterData(product.getBand("vv_001_owiLat"), 1, 1, 2, 1, latRowData, ProgressMonitor.NULL);
+        assertArrayEquals(new float[]{6.0f, 7.5f}, (float[]) latRowData.getElems(), 0.0f);
+
+        ProductData landFlagData = ProductData.createInstance(ProductData.TYPE_INT8, 6);
+        reader.readBandRasterData(product.getBand("vv_001_owiLandFlag"), 0, 0, 3, 2, landFlagData,
+                                  ProgressMonitor.NULL);
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 1}, (byte[]) landFlagData.getElems());
+    }
+
+    @Test
+    public void testDecodeQualification() throws Exception {
+        OwiProductReaderPlugIn plugIn = new OwiProductReaderPlugIn();
+        File file = createMeasurementFile(NetcdfClassicHeaderTest.createOwiFile());
+
+        assertEquals(DecodeQualification.INTENDED, plugIn.getDecodeQualification(file));
+        assertEquals(DecodeQualification.UNABLE, plugIn.getDecodeQualification(temporaryFolder.newFile("owi.txt")));
+    }
+
+    @Test
+    public void testReadProductNodes_netcdf4() throws Exception {
+        byte[] hdf5 = {(byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0};
+        File file = createMeasurementFile(hdf5);
+        assertEquals(DecodeQualification.UNABLE, new OwiProductReaderPlugIn().getDecodeQualification(file));
+
+        try {
+            readProduct(file);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("NetCDF-4/HDF5"));
+            assertTrue(e.getMessage(), e.getMessage().contains(MEASUREMENT_FILE_NAME));
+        }
+    }
+
+    private File createMeasurementFile(byte[] content) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), MEASUREMENT_FILE_NAME);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static Product readProduct(File file) throws IOException {
+        return new OwiProductReaderPlugIn().createReaderInstance().readProductNodes(file, null);
+    }
+}
@@ -0,0 +1,125 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.dataio.DecodeQualification;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipArchiveTest {
+
+    private static final String SAFE_DIR = "S1A_IW_OCN__2SDV_20210101T060000_20210101T060025_035950_0436B0_1A2B.SAFE/";
+    private static final String DEFLATED_ENTRY =
+            SAFE_DIR + "measurement/s1a-iw-ocn-vv-20210101t060000-20210101t060025-035950-0436b0-001.nc";
+    private static final String STORED_ENTRY =
+            SAFE_DIR + "measurement/s1a-iw-ocn-vh-20210101t060000-20210101t060025-035950-0436b0-002.nc";
+
+    private File zipFile;
+    private byte[] owiFile;
+
+    @Before
+    public void setUp() throws Exception {
+        owiFile = NetcdfClassicHeaderTest.createOwiFile();
+        zipFile = File.createTempFile("ocn", ".zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            out.putNextEntry(new ZipEntry(SAFE_DIR + "manifest.safe"));
+            out.write("<xfdu/>".getBytes("UTF-8"));
+            out.putNextEntry(new ZipEntry(DEFLATED_ENTRY));
+            out.write(owiFile);
+            ZipEntry storedEntry = new ZipEntry(STORED_ENTRY);
+            CRC32 crc = new CRC32();
+            crc.update(owiFile);
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(owiFile.length);
+            storedEntry.setCompressedSize(owiFile.length);
+            storedEntry.setCrc(crc.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(owiFile);
+            out.closeEntry();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        zipFile.delete();
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        ZipArchive archive = ZipArchive.open(zipFile);
+        assertEquals(3, archive.getEntryNames().size());
+
+        ZipArchive.Entry deflatedEntry = archive.getEntry(DEFLATED_ENTRY);
+        assertFalse(deflatedEntry.isStored());
+        assertEquals(owiFile.length, deflatedEntry.getSize());
+        assertArrayEquals(owiFile, toArray(archive.read(deflatedEntry)));
+
+        ZipArchive.Entry storedEntry = archive.getEntry(STORED_ENTRY);
+        assertTrue(storedEntry.isStored());
+        assertArrayEquals(owiFile, toArray(archive.read(storedEntry)));
+
+        byte[] magic = toArray(archive.readPrefix(deflatedEntry, 4));
+        assertTrue(NetcdfClassicHeader.isClassicFormat(magic));
+    }
+
+    @Test
+    public void testRead_leadingBytes() throws Exception {
+        ZipArchive archive = ZipArchive.open(zipFile);
+        byte[] leadingBytes = Arrays.copyOf(owiFile, 100);
+
+        assertArrayEquals(leadingBytes, toArray(archive.read(archive.getEntry(DEFLATED_ENTRY), 100)));
+        assertArrayEquals(leadingBytes, toArray(archive.read(archive.getEntry(STORED_ENTRY), 100)));
+        assertArrayEquals(owiFile, toArray(archive.read(archive.getEntry(DEFLATED_ENTRY), owiFile.length + 100L)));
+    }
+
+    @Test
+    public void testCentralDirectoryCache() throws Exception {
+        ZipArchive archive = ZipArchive.open(zipFile);
+        assertSame(archive, ZipArchive.open(zipFile));
+
+        assertTrue(zipFile.setLastModified(zipFile.lastModified() - 10000));
+        assertNotSame(archive, ZipArchive.open(zipFile));
+    }
+
+    @Test
+    public void testFindMeasurementEntries() throws Exception {
+        ZipArchive archive = ZipArchive.open(zipFile);
+        assertEquals(Arrays.asList(STORED_ENTRY, DEFLATED_ENTRY),
+                OwiProductReaderPlugIn.findMeasurementEntries(archive));
+    }
+
+    @Test
+    public void testDecodeQualification() throws Exception {
+        assertEquals(DecodeQualification.INTENDED, new OwiProductReaderPlugIn().getDecodeQualification(zipFile));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_notZip() throws Exception {
+        File file = File.createTempFile("ocn", ".zip");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(Collections.nCopies(100, (byte) 1).toString().getBytes("UTF-8"));
+            }
+            ZipArchive.open(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,33 @@
+#!/bin/sh
+#
+# Runs the Sentinel-1 Level-2 OCN inbox processor (ie.marei.calmar.InboxProcessor) with the classes of a SNAP
+# installation and of the Calmar plugins installed into it.
+#
+# Usage: ocn-inbox-processor.sh -inbox <dir> -outbox <dir> [-op <alias>] [-format <writer format>]
+#                               [-reader <reader format>] [-settle <millis>] [-P<name>=<value> ...]
+#
+# Environment:
+#   SNAP_HOME      SNAP installation directory, default $HOME/snap
+#   SNAP_USER_DIR  SNAP user directory with the installed plugins, default $HOME/.snap
+#   JAVA_OPTS      Additional JVM options, default -Xmx4G
+
+SNAP_HOME=${SNAP_HOME:-$HOME/snap}
+SNAP_USER_DIR=${SNAP_USER_DIR:-$HOME/.snap}
+JAVA_OPTS=${JAVA_OPTS:--Xmx4G}
+
+if [ -x "$SNAP_HOME/jre/bin/java" ]; then
+    JAVA="$SNAP_HOME/jre/bin/java"
+else
+    JAVA=java
+fi
+
+if [ ! -d "$SNAP_HOME/snap/modules" ]; then
+    echo "No SNAP installation found in $SNAP_HOME, set SNAP_HOME" >&2
+    exit 1
+fi
+
+# the module and library jars of all SNAP clusters and of the plugins installed by the user
+CLASSPATH=$(find "$SNAP_HOME"/*/modules "$SNAP_USER_DIR/system/modules" -name '*.jar' 2>/dev/null | tr '\n' ':')
+
+exec "$JAVA" $JAVA_OPTS -Dsnap.home="$SNAP_HOME" -Dsnap.userdir="$SNAP_USER_DIR" -cp "$CLASSPATH" \
+    ie.marei.calmar.InboxProcessor "$@"
@@ -0,0 +1,381 @@
+package ie.marei.calmar;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.*;
+import org.esa.snap.core.gpf.Operator;
+import org.esa.snap.core.gpf.OperatorException;
+import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.gpf.annotations.OperatorMetadata;
+import org.esa.snap.core.gpf.annotations.SourceProducts;
+import org.esa.snap.core.gpf.annotations.TargetProduct;
+import org.esa.snap.core.util.ProductUtils;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The <code>DatatakeMosaicOp</code> merges the consecutive Sentinel-1 Level-2 OCN slices of a datatake into one
+ * product.
+ * <p/>
+ * The owi grids of the slices are concatenated along track in the order of their start times. Leading rows of a
+ * slice which repeat the last rows of the previous slice are skipped. The merged product contains the owi bands
+ * of the slices, under the names of the first slice, and a geocoding created from the merged owiLat and owiLon
+ * grids. The merged product can be passed directly to the OCN-Restructure-Geocoding or OCN-Vertical-Wind-Shear
+ * operators, which then process the whole datatake in a single pass.
+ * <p/>
+ * Slices of a different product type, mission or datatake, the latter two taken from the product names, are
+ * rejected, and so is a slice which leaves a gap of a row or more after the previous slice or lies entirely within
+ * it. Where a check cannot be made, e.g. for slices without a start time or without a standard product name, a
+ * warning is logged.
+ */
+@OperatorMetadata(
+        alias = "OCN-Datatake-Mosaic",
+        version = "0.1",
+        category = "Radar/SAR Applications/Ocean Applications",
+        description = "This tool merges the consecutive Sentinel-1 Level-2 OCN slices of a datatake along track",
+        authors = "Declan Dunne",
+        copyright = "Copyright (C) 2021 MaREI")
+public class DatatakeMosaicOp extends Operator {
+
+    // mission and datatake ID in a Sentinel-1 product name, e.g. S1A_IW_OCN__2SDV_<start>_<stop>_035912_0434A1_ABCD
+    private static final Pattern DATATAKE_PATTERN =
+            Pattern.compile("(S1[A-Z])_\\w+?_\\d{8}T\\d{6}_\\d{8}T\\d{6}_\\d{6}_([0-9A-F]{6})");
+
+    // the first new row of a slice may be at most this many rows beyond the last row of the previous slice
+    private static final double MAX_SEAM_ROWS = 1.5;
+
+    @SourceProducts(description = "The consecutive slice products of a datatake")
+    private Product[] sourceProducts;
+
+    @TargetProduct
+    private Product targetProduct;
+
+    private Product[] slices;
+    private int[] sliceTargetRows;
+    private int[] sliceFirstRows;
+    private int[] sliceHeights;
+
+    /**
+     * Initializes this operator and sets the one and only target product.
+     * <p/>
+     * The slices are ordered by start time, the overlap rows between consecutive slices are determined from their
+     * owiLat and owiLon grids, and the merged lat and lon grids are held off-heap.
+     * <p/>
+     * The method is called by the framework before any tiles are computed.
+     *
+     * @throws OperatorException If an error occurs during operator initialisation.
+     */
+    @Override
+    public void initialize() throws OperatorException {
+        if (sourceProducts == null || sourceProducts.length == 0) {
+            throw new OperatorException("Requires at least one Sentinel-1 Level-2 OCN slice product");
+        }
+        slices = sourceProducts.clone();
+        if (Arrays.stream(slices).allMatch(slice -> slice.getStartTime() != null)) {
+            Arrays.sort(slices, Comparator.comparing(slice -> slice.getStartTime().getAsDate()));
+        } else {
+            SystemUtils.LOG.warning("Not all slices have a start time, the slices are merged in the given order");
+        }
+        checkDatatake(slices);
+
+        OwiParameters owiParametersInst = new OwiParameters(slices[0]);
+        String[] bandNames = {
+                owiParametersInst.getOwiWindSpeedName(),
+                owiParametersInst.getOwiWindDirectionName(),
+                owiParametersInst.getOwiWindQualityName(),
+                owiParametersInst.getOwiLandFlagName(),
+                owiParametersInst.getOwiIncidenceAngleName()
+        };
+        String owiLatName = owiParametersInst.getOwiLatName();
+        String owiLonName = owiParametersInst.getOwiLonName();
+        int width = slices[0].getBand(owiLatName).getRasterWidth();
+
+        // read the slice lat and lon grids and find the overlap rows
+        FloatBuffer[] latData = new FloatBuffer[slices.length];
+        FloatBuffer[] lonData = new FloatBuffer[slices.length];
+        sliceTargetRows = new int[slices.length];
+        sliceFirstRows = new int[slices.length];
+        sliceHeights = new int[slices.length];
+        int height = 0;
+        for (int i = 0; i < slices.length; i++) {
+            Product slice = slices[i];
+            for (String bandName : concat(bandNames, owiLatName, owiLonName)) {
+                if (slice.getBand(bandName) == null) {
+                    throw new OperatorException("Slice " + slice.getName() + " is missing the " + bandName + " band");
+                }
+            }
+            Band owiLat = slice.getBand(owiLatName);
+            if (owiLat.getRasterWidth() != width) {
+                throw new OperatorException("Slice " + slice.getName() + " has " + owiLat.getRasterWidth() +
+                        " owi cells across track, expected " + width);
+            }
+            int sliceHeight = owiLat.getRasterHeight();
+            for (String bandName : concat(bandNames, owiLonName)) {
+                Band band = slice.getBand(bandName);
+                if (band.getRasterWidth() != width || band.getRasterHeight() != sliceHeight) {
+                    throw new OperatorException("Slice " + slice.getName() + " has a " + band.getRasterWidth() +
+                            " x " + band.getRasterHeight() + " " + bandName + " band, expected " + width + " x " +
+                            sliceHeight + " as for " + owiLatName);
+                }
+            }
+            latData[i] = OffHeapLatLonGeoCoding.readOffHeap(owiLat);
+            lonData[i] = OffHeapLatLonGeoCoding.readOffHeap(slice.getBand(owiLonName));
+            if (i > 0) {
+                int prevHeight = sliceHeights[i - 1] + sliceFirstRows[i - 1];
+                sliceFirstRows[i] = countOverlapRows(latData[i - 1], lonData[i - 1], prevHeight,
+                        latData[i], lonData[i], sliceHeight, width);
+                checkSeam(slices[i - 1], latData[i - 1], lonData[i - 1], prevHeight,
+                        slice, latData[i], lonData[i], sliceHeight, sliceFirstRows[i], width);
+            }
+            sliceTargetRows[i] = height;
+            sliceHeights[i] = sliceHeight - sliceFirstRows[i];
+            height += sliceHeights[i];
+        }
+
+        Product tp = new Product(getId(), slices[0].getProductType(), width, height);
+        ProductUtils.copyMetadata(slices[0], tp);
+        tp.setStartTime(slices[0].getStartTime());
+        tp.setEndTime(slices[slices.length - 1].getEndTime());
+
+        // the bands have the merged height, only their properties are taken from the first slice
+        for (String bandName : bandNames) {
+            Band sourceBand = slices[0].getBand(bandName);
+            Band band = new Band(bandName, sourceBand.getDataType(), width, height);
+            ProductUtils.copyRasterDataNodeProperties(sourceBand, band);
+            tp.addBand(band);
+        }
+
+        // merged owiLat and owiLon, the bands share the off-heap grids with the geocoding
+        FloatBuffer mergedLatData = merge(latData, width, height);
+        FloatBuffer mergedLonData = merge(lonData, width, height);
+        OffHeapLatLonGeoCoding.addLatLonBand(tp, owiLatName, mergedLatData, slices[0].getBand(owiLatName).getUnit());
+        OffHeapLatLonGeoCoding.addLatLonBand(tp, owiLonName, mergedLonData, slices[0].getBand(owiLonName).getUnit());
+        tp.setSceneGeoCoding(new OffHeapLatLonGeoCoding(mergedLatData, mergedLonData, width, height));
+
+        this.targetProduct = tp;
+    }
+
+    /**
+     * Computes a target tile by copying the rows of the slices it covers.
+     *
+     * @param targetBand The target band.
+     * @param targetTile The current tile associated with the target band to be computed.
+     * @param pm         A progress monitor which should be used to determine computation cancellation requests.
+     * @throws OperatorException If an error occurs during computation of the target raster.
+     */
+    @Override
+    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        Rectangle targetRectangle = targetTile.getRectangle();
+        int minY = targetRectangle.y;
+        int maxY = targetRectangle.y + targetRectangle.height;
+
+        pm.beginTask("Merging OCN slices", slices.length);
+        try {
+            for (int i = 0; i < slices.length; i++) {
+                int y0 = Math.max(minY, sliceTargetRows[i]);
+                int y1 = Math.min(maxY, sliceTargetRows[i] + sliceHeights[i]);
+                if (y0 < y1) {
+                    int rowOffset = sliceFirstRows[i] - sliceTargetRows[i];
+                    Rectangle sourceRectangle = new Rectangle(targetRectangle.x, y0 + rowOffset,
+                            targetRectangle.width, y1 - y0);
+                    Tile sourceTile = getSourceTile(slices[i].getBand(targetBand.getName()), sourceRectangle);
+                    for (int y = y0; y < y1; y++) {
+                        for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                            targetTile.setSample(x, y, sourceTile.getSampleDouble(x, y + rowOffset));
+                        }
+                    }
+                    checkForCancellation();
+                }
+                pm.worked(1);
+            }
+        } finally {
+            pm.done();
+        }
+    }
+
+    /**
+     * Checks that all slices have the product type of the first slice and belong to its datatake.
+     *
+     * @throws OperatorException If a slice has another product type, mission or datatake ID.
+     */
+    static void checkDatatake(Product[] slices) throws OperatorException {
+        String productType = slices[0].getProductType();
+        String datatake = getDatatake(slices[0]);
+        for (Product slice : slices) {
+            if (!Objects.equals(productType, slice.getProductType())) {
+                throw new OperatorException("Slice " + slice.getName() + " has the product type " +
+                        slice.getProductType() + ", expected " + productType);
+            }
+            String sliceDatatake = getDatatake(slice);
+            if (datatake == null || sliceDatatake == null) {
+                SystemUtils.LOG.warning("The datatake of slice " + slice.getName() + " cannot be determined from " +
+                        "the product name, the slices are not checked to belong to the same datatake");
+            } else if (!datatake.equals(sliceDatatake)) {
+                throw new OperatorException("Slice " + slice.getName() + " belongs to datatake " + sliceDatatake +
+                        ", expected " + datatake);
+            }
+        }
+    }
+
+    /**
+     * Returns the mission and datatake ID of a product, e.g. S1A_0434A1, taken from its name, or null if the name
+     * is not a Sentinel-1 product name.
+     */
+    static String getDatatake(Product product) {
+        Matcher matcher = DATATAKE_PATTERN.matcher(product.getName() != null ? product.getName() : "");
+        return matcher.find() ? matcher.group(1) + "_" + matcher.group(2) : null;
+    }
+
+    /**
+     * Checks that the next slice continues the previous slice, i.e. its first row after the overlap rows is less
+     * than {@value #MAX_SEAM_ROWS} rows beyond the last row of the previous slice.
+     *
+     * @throws OperatorException If the next slice leaves a gap or lies entirely within the previous slice.
+     */
+    private static void checkSeam(Product prev, FloatBuffer prevLatData, FloatBuffer prevLonData, int prevHeight,
+                                  Product next, FloatBuffer nextLatData, FloatBuffer nextLonData, int nextHeight,
+                                  int overlapRows, int width) throws OperatorException {
+        if (overlapRows == nextHeight) {
+            throw new OperatorException("Slice " + next.getName() + " lies entirely within slice " + prev.getName());
+        }
+        int column = findSeamColumn(prevLatData, prevLonData, prevHeight, nextLatData, nextLonData, nextHeight, width);
+        double seamRows = column < 0 ? Double.NaN : getAlongTrackRows(prevLatData, prevLonData, prevHeight,
+                nextLatData, nextLonData, overlapRows, column, width);
+        if (Double.isNaN(seamRows)) {
+            SystemUtils.LOG.warning("Slice " + next.getName() + " cannot be checked to continue slice " +
+                    prev.getName() + ": no valid geolocation at the seam");
+        } else if (seamRows >= MAX_SEAM_ROWS) {
+            throw new OperatorException(String.format("Slice %s does not continue slice %s: its first row is " +
+                    "%.1f rows beyond the end of it", next.getName(), prev.getName(), seamRows));
+        }
+    }
+
+    /**
+     * Counts the leading rows of the next slice which repeat the end of the previous slice.
+     * <p/>
+     * The along track position of each leading row of the next slice is measured at the first column where both
+     * slices have a finite lat and lon at the seam, see {@link #getAlongTrackRows}. A row is an overlap row if it
+     * is not at least half a row beyond the last row of the previous slice. Counting stops at the first row whose
+     * position cannot be determined, so a NaN lat or lon never makes a whole slice an overlap.
+     *
+     * @param prevLatData The latitudes of the previous slice.
+     * @param prevLonData The longitudes of the previous slice.
+     * @param prevHeight  The number of rows of the previous slice.
+     * @param nextLatData The latitudes of the next slice.
+     * @param nextLonData The longitudes of the next slice.
+     * @param nextHeight  The number of rows of the next slice.
+     * @param width       The number of columns of both slices.
+     * @return The number of overlap rows at the start of the next slice, 0 if there is no column with a finite lat
+     * and lon at the seam.
+     */
+    static int countOverlapRows(FloatBuffer prevLatData, FloatBuffer prevLonData, int prevHeight,
+                                FloatBuffer nextLatData, FloatBuffer nextLonData, int nextHeight, int width) {
+        int column = findSeamColumn(prevLatData, prevLonData, prevHeight, nextLatData, nextLonData, nextHeight, width);
+        if (column < 0) {
+            return 0;
+        }
+        int overlapRows = 0;
+        while (overlapRows < nextHeight && getAlongTrackRows(prevLatData, prevLonData, prevHeight,
+                nextLatData, nextLonData, overlapRows, column, width) < 0.5) {
+            overlapRows++;
+        }
+        return overlapRows;
+    }
+
+    /**
+     * Returns the first column whose lat and lon are finite in the last two rows of the previous slice and in the
+     * first row of the next slice, or -1 if there is no such column.
+     */
+    static int findSeamColumn(FloatBuffer prevLatData, FloatBuffer prevLonData, int prevHeight,
+                              FloatBuffer nextLatData, FloatBuffer nextLonData, int nextHeight, int width) {
+        if (prevHeight < 2 || nextHeight < 1) {
+            return -1;
+        }
+        for (int column = 0; column < width; column++) {
+            int lastIndex = (prevHeight - 1) * width + column;
+            if (isFinite(prevLatData, prevLonData, lastIndex) && isFinite(prevLatData, prevLonData, lastIndex - width) &&
+                    isFinite(nextLatData, nextLonData, column)) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the along track position of a row of the next slice, measured at the given column in units of the
+     * row spacing at the end of the previous slice, relative to the last row of the previous slice. NaN is
+     * returned if the position cannot be determined, e.g. for a NaN lat or lon.
+     *
+     * @param prevLatData The latitudes of the previous slice.
+     * @param prevLonData The longitudes of the previous slice.
+     * @param prevHeight  The number of rows of the previous slice.
+     * @param nextLatData The latitudes of the next slice.
+     * @param nextLonData The longitudes of the next slice.
+     * @param row         The row of the next slice.
+     * @param column      The column at which the position is measured.
+     * @param width       The number of columns of both slices.
+     * @return The along track position in rows, 1 for the row following the previous slice without gap.
+     */
+    static double getAlongTrackRows(FloatBuffer prevLatData, FloatBuffer prevLonData, int prevHeight,
+                                    FloatBuffer nextLatData, FloatBuffer nextLonData, int row, int column, int width) {
+        if (prevHeight < 2) {
+            return Double.NaN;
+        }
+        int lastIndex = (prevHeight - 1) * width + column;
+        double lastLat = prevLatData.get(lastIndex);
+        double lastLon = prevLonData.get(lastIndex);
+        double cosLat = Math.cos(Math.toRadians(lastLat));
+        double trackLat = lastLat - prevLatData.get(lastIndex - width);
+        double trackLon = LatLonUtils.normalizeLon(lastLon - prevLonData.get(lastIndex - width)) * cosLat;
+        double rowSpacing2 = trackLat * trackLat + trackLon * trackLon;
+        if (!(rowSpacing2 > 0.0) || Double.isInfinite(rowSpacing2)) {
+            return Double.NaN;
+        }
+        int index = row * width + column;
+        double deltaLat = nextLatData.get(index) - lastLat;
+        double deltaLon = LatLonUtils.normalizeLon(nextLonData.get(index) - lastLon) * cosLat;
+        return (deltaLat * trackLat + deltaLon * trackLon) / rowSpacing2;
+    }
+
+    private static boolean isFinite(FloatBuffer latData, FloatBuffer lonData, int index) {
+        float lat = latData.get(index);
+        float lon = lonData.get(index);
+        return !Float.isNaN(lat) && !Float.isInfinite(lat) && !Float.isNaN(lon) && !Float.isInfinite(lon);
+    }
+
+    /**
+     * Concatenates the rows of the slice grids which are used in the merged product.
+     */
+    private FloatBuffer merge(FloatBuffer[] sliceData, int width, int height) {
+        FloatBuffer data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = 0; i < sliceData.length; i++) {
+            FloatBuffer rows = sliceData[i].duplicate();
+            rows.position(sliceFirstRows[i] * width);
+            rows.limit((sliceFirstRows[i] + sliceHeights[i]) * width);
+            data.put(rows);
+        }
+        data.rewind();
+        return data;
+    }
+
+    private static String[] concat(String[] names, String... moreNames) {
+        String[] allNames = Arrays.copyOf(names, names.length + moreNames.length);
+        System.arraycopy(moreNames, 0, allNames, names.length, moreNames.length);
+        return allNames;
+    }
+
+    public static class Spi extends OperatorSpi {
+        public Spi() {
+            super(DatatakeMosaicOp.class);
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package ie.marei.calmar;
+
+import com.bc.ceres.binding.ConversionException;
+import com.bc.ceres.binding.Converter;
+import com.bc.ceres.binding.ConverterRegistry;
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.dataio.ProductIOPlugInManager;
+import org.esa.snap.core.dataio.ProductWriterPlugIn;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.datamodel.VirtualBand;
+import org.esa.snap.core.gpf.GPF;
+import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.core.gpf.descriptor.ParameterDescriptor;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The <code>InboxProcessor</code> is a long-running process which watches a local inbox directory and applies a
+ * Calmar operator to every Sentinel-1 Level-2 OCN product arriving there, for near-real-time processing.
+ * <p/>
+ * SNAP and GPF are initialised once at start-up, the operator is looked up once, and it is run on a small
+ * synthetic OCN product so that its classes are loaded and its code is compiled before the first real product
+ * arrives. A product is processed as soon as it is fully written, i.e. its size and modification time have not
+ * changed for the settle time. SAFE directories must contain their manifest.safe. Processed products are moved to
+ * the <code>processed</code> sub-directory of the inbox, products which cannot be processed to <code>failed</code>.
+ * A product whose name is already taken there gets a timestamp suffix, and so does an output product whose name is
+ * already taken in the outbox, e.g. of a product delivered twice.
+ * <p/>
+ * The process is started by the <code>ocn-inbox-processor.sh</code> script, which the plugin installs into the
+ * <code>bin</code> directory of the SNAP user directory. Usage:
+ * <pre>
+ * InboxProcessor -inbox &lt;dir&gt; -outbox &lt;dir&gt; [-op &lt;alias&gt;] [-format &lt;writer format&gt;]
+ *                [-reader &lt;reader format&gt;] [-settle &lt;millis&gt;] [-P&lt;name&gt;=&lt;value&gt; ...]
+ * </pre>
+ */
+public class InboxProcessor {
+
+    private static final String DEFAULT_OPERATOR_ALIAS = "OCN-Restructure-Geocoding";
+    private static final String DEFAULT_OUTPUT_FORMAT = "BEAM-DIMAP";
+    private static final long DEFAULT_SETTLE_MILLIS = 2000;
+    private static final long POLL_MILLIS = 500;
+    private static final String PROCESSED_DIR_NAME = "processed";
+    private static final String FAILED_DIR_NAME = "failed";
+    private static final String[] WARM_UP_EXCLUDED_PARAMETERS = {"checkpointDir", "cacheDir"};
+    private static final int WARM_UP_SIZE = 256;
+    private static final int WARM_UP_RUNS = 3;
+
+    private final Path inboxDir;
+    private final Path outboxDir;
+    private final String operatorAlias;
+    private final Map<String, String> parameterTexts;
+    private final String outputFormat;
+    private final String readerFormat;
+    private final long settleMillis;
+
+    private final Map<Path, PendingEntry> pendingEntries = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService processor = Executors.newSingleThreadExecutor();
+    private Map<String, Object> parameters;
+    private String outputExtension;
+    private volatile WatchService watchService;
+
+    public InboxProcessor(Path inboxDir, Path outboxDir, String operatorAlias, Map<String, String> parameterTexts,
+                          String outputFormat, String readerFormat, long settleMillis) {
+        this.inboxDir = inboxDir;
+        this.outboxDir = outboxDir;
+        this.operatorAlias = operatorAlias;
+        this.parameterTexts = parameterTexts;
+        this.outputFormat = outputFormat;
+        this.readerFormat = readerFormat;
+        this.settleMillis = settleMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path inboxDir = null;
+        Path outboxDir = null;
+        String operatorAlias = DEFAULT_OPERATOR_ALIAS;
+        String outputFormat = DEFAULT_OUTPUT_FORMAT;
+        String readerFormat = null;
+        long settleMillis = DEFAULT_SETTLE_MILLIS;
+        Map<String, String> parameterTexts = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("-P") && arg.contains("=")) {
+                int separator = arg.indexOf('=');
+                parameterTexts.put(arg.substring(2, separator), arg.substring(separator + 1));
+            } else if (i + 1 < args.length && arg.equals("-inbox")) {
+                inboxDir = Paths.get(args[++i]);
+            } else if (i + 1 < args.length && arg.equals("-outbox")) {
+                outboxDir = Paths.get(args[++i]);
+            } else if (i + 1 < args.length && arg.equals("-op")) {
+                operatorAlias = args[++i];
+            } else if (i + 1 < args.length && arg.equals("-format")) {
+                outputFormat = args[++i];
+            } else if (i + 1 < args.length && arg.equals("-reader")) {
+                readerFormat = args[++i];
+            } else if (i + 1 < args.length && arg.equals("-settle")) {
+                settleMillis = Long.parseLong(args[++i]);
+            } else {
+                printUsage();
+                return;
+            }
+        }
+        if (inboxDir == null || outboxDir == null) {
+            printUsage();
+            return;
+        }
+        InboxProcessor inboxProcessor = new InboxProcessor(inboxDir, outboxDir, operatorAlias, parameterTexts,
+                outputFormat, readerFormat, settleMillis);
+        inboxProcessor.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(inboxProcessor::stop));
+        inboxProcessor.watch();
+    }
+
+    /**
+     * Initialises SNAP and GPF, converts the operator parameters and warms up the operator.
+     *
+     * @throws IOException If the inbox or outbox directories cannot be created.
+     */
+    public void start() throws IOException {
+        Files.createDirectories(inboxDir.resolve(PROCESSED_DIR_NAME));
+        Files.createDirectories(inboxDir.resolve(FAILED_DIR_NAME));
+        Files.createDirectories(outboxDir);
+
+        SystemUtils.init3rdPartyLibs(InboxProcessor.class.getClassLoader());
+        GPF.getDefaultInstance().getOperatorSpiRegistry().loadOperatorSpis();
+        OperatorSpi operatorSpi = GPF.getDefaultInstance().getOperatorSpiRegistry().getOperatorSpi(operatorAlias);
+        if (operatorSpi == null) {
+            throw new IllegalArgumentException("Unknown operator " + operatorAlias);
+        }
+        parameters = convertParameters(operatorSpi, parameterTexts);
+        outputExtension = getOutputExtension(outputFormat);
+
+        long startTime = System.currentTimeMillis();
+        warmUp();
+        SystemUtils.LOG.info("Operator " + operatorAlias + " warmed up in " +
+                (System.currentTimeMillis() - startTime) + " ms, watching " + inboxDir);
+    }
+
+    /**
+     * Watches the inbox until the process is stopped. Entries already in the inbox are processed first.
+     *
+     * @throws IOException          If the inbox cannot be watched.
+     * @throws InterruptedException If the watching thread is interrupted.
+     */
+    public void watch() throws IOException, InterruptedException {
+        try (WatchService watchService = inboxDir.getFileSystem().newWatchService();
+             Stream<Path> existingEntries = Files.list(inboxDir)) {
+            this.watchService = watchService;
+            inboxDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            existingEntries.forEach(this::addPendingEntry);
+            scheduler.scheduleWithFixedDelay(this::submitSettledEntries, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey watchKey = watchService.take();
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.context() instanceof Path) {
+                        addPendingEntry(inboxDir.resolve((Path) event.context()));
+                    }
+                }
+                if (!watchKey.reset()) {
+                    throw new IOException("Inbox " + inboxDir + " is no longer accessible");
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Stops watching the inbox, and waits for the product being processed to be completed.
+     */
+    public void stop() {
+        WatchService watchService = this.watchService;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                SystemUtils.LOG.warning("Cannot close watch service of " + inboxDir + ": " + e.getMessage());
+            }
+        }
+        scheduler.shutdownNow();
+        processor.shutdown();
+        try {
+            processor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds an inbox entry which has been created or modified, unless it is already pending or is a hidden,
+     * temporary or partial file.
+     */
+    synchronized void addPendingEntry(Path entry) {
+        String name = entry.getFileName().toString();
+        if (name.startsWith(".") || name.equals(PROCESSED_DIR_NAME) || name.equals(FAILED_DIR_NAME) ||
+                name.endsWith(".part") || name.endsWith(".tmp")) {
+            return;
+        }
+        if (!pendingEntries.containsKey(entry)) {
+            pendingEntries.put(entry, new PendingEntry(System.currentTimeMillis()));
+        }
+    }
+
+    private void submitSettledEntries() {
+        for (Map.Entry<Path, Long> settledEntry : takeSettledEntries(System.currentTimeMillis()).entrySet()) {
+            processor.submit(() -> process(settledEntry.getKey(), settledEntry.getValue()));
+        }
+    }
+
+    /**
+     * Removes the pending entries which are ready to be processed: their signature has not changed for the settle
+     * time and they are complete. Entries which no longer exist are dropped.
+     *
+     * @param now The current time in milliseconds.
+     * @return The arrival times of the settled entries, by entry.
+     */
+    synchronized Map<Path, Long> takeSettledEntries(long now) {
+        Map<Path, Long> settledEntries = new LinkedHashMap<>();
+        Iterator<Map.Entry<Path, PendingEntry>> iterator = pendingEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingEntry> pendingEntry = iterator.next();
+            Path entry = pendingEntry.getKey();
+            PendingEntry state = pendingEntry.getValue();
+            if (!Files.exists(entry)) {
+                iterator.remove();
+                continue;
+            }
+            String signature = getSignature(entry);
+            if (!signature.equals(state.signature)) {
+                state.signature = signature;
+                state.lastChangeTime = now;
+            } else if (now - state.lastChangeTime >= settleMillis && isComplete(entry)) {
+                iterator.remove();
+                settledEntries.put(entry, state.arrivalTime);
+            }
+        }
+        return settledEntries;
+    }
+
+    private void process(Path entry, long arrivalTime) {
+        Product sourceProduct = null;
+        Product targetProduct = null;
+        boolean processed = false;
+        try {
+            File inputFile = entry.toFile();
+            sourceProduct = readerFormat != null ? ProductIO.readProduct(inputFile, readerFormat) : ProductIO.readProduct(inputFile);
+            if (sourceProduct == null) {
+                throw new IOException("No reader found for " + entry);
+            }
+            targetProduct = GPF.createProduct(operatorAlias, parameters, sourceProduct);
+            String productName = entry.getFileName().toString().replaceFirst("(?i)\\.(safe|zip)$", "");
+            File outputFile = getOutputFile(outboxDir, productName + "_" + operatorAlias, outputExtension);
+            GPF.writeProduct(targetProduct, outputFile, outputFormat, false, ProgressMonitor.NULL);
+            processed = true;
+            SystemUtils.LOG.info("Processed " + entry.getFileName() + " to " + outputFile.getName() + " in " +
+                    (System.currentTimeMillis() - arrivalTime) + " ms after arrival");
+        } catch (Exception e) {
+            SystemUtils.LOG.severe("Failed to process " + entry + ": " + e.getMessage());
+        } finally {
+            if (targetProduct != null) {
+                targetProduct.dispose();
+            }
+            if (sourceProduct != null) {
+                sourceProduct.dispose();
+            }
+        }
+        Path doneDir = inboxDir.resolve(processed ? PROCESSED_DIR_NAME : FAILED_DIR_NAME);
+        try {
+            moveToDoneDir(entry, doneDir);
+        } catch (IOException e) {
+            SystemUtils.LOG.warning("Cannot move " + entry + " to " + doneDir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a processed inbox entry to the given directory. If an entry of the same name is already there, e.g. a
+     * product delivered twice, the moved entry is given a unique name with a timestamp suffix before its extension.
+     *
+     * @param entry   The inbox entry, a file or a SAFE directory.
+     * @param doneDir The processed or failed directory.
+     * @return The moved entry.
+     * @throws IOException If the entry cannot be moved.
+     */
+    static Path moveToDoneDir(Path entry, Path doneDir) throws IOException {
+        String name = entry.getFileName().toString();
+        int extensionStart = name.lastIndexOf('.') > 0 ? name.lastIndexOf('.') : name.length();
+        String baseName = name.substring(0, extensionStart);
+        String extension = name.substring(extensionStart);
+        String timestamp = createTimestamp();
+        Path target = doneDir.resolve(name);
+        for (int count = 1; ; count++) {
+            try {
+                return Files.move(entry, target);
+            } catch (FileAlreadyExistsException e) {
+                target = doneDir.resolve(getUniqueName(baseName, extension, timestamp, count));
+            }
+        }
+    }
+
+    /**
+     * Returns the output file of a product in the outbox. If a file of the same name is already there, e.g. the
+     * output of a product delivered twice, the output file is given a unique name with a timestamp suffix before
+     * its extension, as by {@link #moveToDoneDir(Path, Path)}.
+     *
+     * @param outboxDir The outbox directory.
+     * @param baseName  The name of the output file without extension.
+     * @param extension The extension of the output file, including the dot.
+     * @return The output file.
+     */
+    static File getOutputFile(Path outboxDir, String baseName, String extension) {
+        Path outputFile = outboxDir.resolve(baseName + extension);
+        String timestamp = createTimestamp();
+        for (int count = 1; Files.exists(outputFile); count++) {
+            outputFile = outboxDir.resolve(getUniqueName(baseName, extension, timestamp, count));
+        }
+        return outputFile.toFile();
+    }
+
+    private static String createTimestamp() {
+        return new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.ENGLISH).format(new Date());
+    }
+
+    private static String getUniqueName(String baseName, String extension, String timestamp, int count) {
+        return baseName + "_" + timestamp + (count > 1 ? "_" + count : "") + extension;
+    }
+
+    /**
+     * Runs the operator on a synthetic OCN product and computes all its target tiles.
+     */
+    private void warmUp() {
+        Map<String, Object> warmUpParameters = new HashMap<>(parameters);
+        for (String excludedParameter : WARM_UP_EXCLUDED_PARAMETERS) {
+            warmUpParameters.remove(excludedParameter);
+        }
+        for (int run = 0; run < WARM_UP_RUNS; run++) {
+            Product sourceProduct = createWarmUpProduct();
+            Product targetProduct = GPF.createProduct(operatorAlias, warmUpParameters, sourceProduct);
+            for (Band band : targetProduct.getBands()) {
+                band.getSourceImage().getData();
+            }
+            targetProduct.dispose();
+            sourceProduct.dispose();
+        }
+    }
+
+    static Product createWarmUpProduct() {
+        int size = WARM_UP_SIZE;
+        Product product = new Product("warm-up", "OCN", size, size);
+        product.addBand(new VirtualBand("vv_001_owiLat", ProductData.TYPE_FLOAT32, size, size, "53.0 - 0.01 * Y"));
+        product.addBand(new VirtualBand("vv_001_owiLon", ProductData.TYPE_FLOAT32, size, size, "-10.0 + 0.015 * X"));
+        product.addBand(new VirtualBand("vv_001_owiWindSpeed", ProductData.TYPE_FLOAT32, size, size, "8.0 + sin(0.1 * X)"));
+        product.addBand(new VirtualBand("vv_001_owiWindDirection", ProductData.TYPE_FLOAT32, size, size, "(X + Y) % 360"));
+        product.addBand(new VirtualBand("vv_001_owiWindQuality", ProductData.TYPE_INT8, size, size, "X % 4"));
+        product.addBand(new VirtualBand("vv_001_owiLandFlag", ProductData.TYPE_INT8, size, size, "X < 16 ? 1 : 0"));
+        product.addBand(new VirtualBand("vv_001_owiIncidenceAngle", ProductData.TYPE_FLOAT32, size, size, "30.0 + 0.05 * X"));
+        return product;
+    }
+
+    /**
+     * Converts the texts of the -P options to the values of the operator parameters, addressed by name or alias.
+     *
+     * @throws IllegalArgumentException If a parameter is unknown, of an unsupported type or has an invalid value.
+     */
+    static Map<String, Object> convertParameters(OperatorSpi operatorSpi, Map<String, String> parameterTexts) {
+        Map<String, Object> parameters = new HashMap<>();
+        ParameterDescriptor[] descriptors = operatorSpi.getOperatorDescriptor().getParameterDescriptors();
+        for (Map.Entry<String, String> parameterText : parameterTexts.entrySet()) {
+            ParameterDescriptor descriptor = null;
+            for (ParameterDescriptor candidate : descriptors) {
+                if (parameterText.getKey().equals(candidate.getName()) || parameterText.getKey().equals(candidate.getAlias())) {
+                    descriptor = candidate;
+                }
+            }
+            if (descriptor == null) {
+                throw new IllegalArgumentException("Unknown parameter " + parameterText.getKey() +
+                        " of operator " + operatorSpi.getOperatorAlias());
+            }
+            Converter<?> converter = ConverterRegistry.getInstance().getConverter(descriptor.getDataType());
+            if (converter == null) {
+                throw new IllegalArgumentException("Unsupported type of parameter " + descriptor.getName());
+            }
+            try {
+                parameters.put(descriptor.getName(), converter.parse(parameterText.getValue()));
+            } catch (ConversionException e) {
+                throw new IllegalArgumentException("Invalid value of parameter " + descriptor.getName() + ": " +
+                        e.getMessage(), e);
+            }
+        }
+        return parameters;
+    }
+
+    private static String getOutputExtension(String outputFormat) {
+        Iterator<ProductWriterPlugIn> writerPlugIns = ProductIOPlugInManager.getInstance().getWriterPlugIns(outputFormat);
+        if (!writerPlugIns.hasNext()) {
+            throw new IllegalArgumentException("Unknown output format " + outputFormat);
+        }
+        String[] extensions = writerPlugIns.next().getDefaultFileExtensions();
+        return extensions != null && extensions.length > 0 ? extensions[0] : "";
+    }
+
+    /**
+     * Returns a signature of the entry which changes while the entry is being written: the number of files, their
+     * total size and the latest modification time.
+     */
+    private static String getSignature(Path entry) {
+        try (Stream<Path> paths = Files.walk(entry)) {
+            long[] signature = new long[3];
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                File file = path.toFile();
+                signature[0]++;
+                signature[1] += file.length();
+                signature[2] = Math.max(signature[2], file.lastModified());
+            });
+            return signature[0] + ";" + signature[1] + ";" + signature[2];
+        } catch (IOException | UncheckedIOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Returns whether the entry is a complete product: a SAFE directory with its manifest, or a file.
+     */
+    static boolean isComplete(Path entry) {
+        if (Files.isDirectory(entry)) {
+            return Files.isRegularFile(entry.resolve("manifest.safe"));
+        }
+        return Files.isRegularFile(entry);
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: InboxProcessor -inbox <dir> -outbox <dir> [-op <alias>] [-format <writer format>]");
+        System.out.println("                      [-reader <reader format>] [-settle <millis>] [-P<name>=<value> ...]");
+        System.out.println();
+        System.out.println("  -op      Operator alias, default " + DEFAULT_OPERATOR_ALIAS);
+        System.out.println("  -format  Output format, default " + DEFAULT_OUTPUT_FORMAT);
+        System.out.println("  -reader  Reader format, e.g. S1-OCN-OWI, default is automatic detection");
+        System.out.println("  -settle  Time in ms an inbox entry must be unchanged before it is processed, default " +
+                DEFAULT_SETTLE_MILLIS);
+    }
+
+    private static class PendingEntry {
+
+        private final long arrivalTime;
+        private long lastChangeTime;
+        private String signature = "";
+
+        PendingEntry(long arrivalTime) {
+            this.arrivalTime = arrivalTime;
+            this.lastChangeTime = arrivalTime;
+        }
+    }
+}
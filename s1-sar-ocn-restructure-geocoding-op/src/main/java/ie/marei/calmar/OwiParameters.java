@@ -4,8 +4,21 @@ import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.OperatorException;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
 public class OwiParameters {
 
+    public static final String OWI_WIND_SPEED = "owiWindSpeed";
+    public static final String OWI_WIND_DIRECTION = "owiWindDirection";
+    public static final String OWI_WIND_QUALITY = "owiWindQuality";
+    public static final String OWI_LAND_FLAG = "owiLandFlag";
+    public static final String OWI_INCIDENCE_ANGLE = "owiIncidenceAngle";
+
+    private static final List<String> ALL_VARIABLES = Arrays.asList(
+            OWI_WIND_SPEED, OWI_WIND_DIRECTION, OWI_WIND_QUALITY, OWI_LAND_FLAG, OWI_INCIDENCE_ANGLE);
+
     private final String[][] possibleOwiParameterNames = {
             {"vv_001_owiLat", "vv_001_owiLon", "vv_001_owiWindSpeed", "vv_001_owiWindDirection", "vv_001_owiWindQuality", "vv_001_owiLandFlag", "vv_001_owiMask", "vv_001_owiIncidenceAngle"},
             {"hh_001_owiLat", "hh_001_owiLon", "hh_001_owiWindSpeed", "hh_001_owiWindDirection", "hh_001_owiWindQuality", "hh_001_owiLandFlag", "hh_001_owiMask", "hh_001_owiIncidenceAngle"}
@@ -21,6 +34,17 @@ public class OwiParameters {
     private String owiLandFlagName = "";
 
     public OwiParameters(Product sourceProduct) {
+        this(sourceProduct, ALL_VARIABLES);
+    }
+
+    /**
+     * Finds the owi bands of the source product. Only owiLat, owiLon and the given variables must exist, the names
+     * of other missing variables are empty.
+     *
+     * @param sourceProduct     The Sentinel-1 Level-2 OCN source product.
+     * @param requiredVariables The required variables, e.g. owiWindSpeed and owiLandFlag.
+     */
+    public OwiParameters(Product sourceProduct, Collection<String> requiredVariables) {
 
         if (sourceProduct == null) {
             throw new OperatorException("Source product is missing");
@@ -55,19 +79,19 @@ public class OwiParameters {
         // owiWindSpeed
         if (sourceProduct.getBand(parameters[2]) != null)
             this.owiWindSpeedName = parameters[2];
-        else
+        else if (requiredVariables.contains(OWI_WIND_SPEED))
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: owiWindSpeed not found");
 
         // owiWindDirection
         if (sourceProduct.getBand(parameters[3]) != null)
             this.owiWindDirectionName = parameters[3];
-        else
+        else if (requiredVariables.contains(OWI_WIND_DIRECTION))
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: owiWindDirection not found");
 
         // owiWindQuality
         if (sourceProduct.getBand(parameters[4]) != null)
             this.owiWindQualityName = parameters[4];
-        else
+        else if (requiredVariables.contains(OWI_WIND_QUALITY))
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: owiWindQuality not found");
 
         // owiLandFlag
@@ -75,13 +99,13 @@ public class OwiParameters {
             this.owiLandFlagName = parameters[5];
         else if (sourceProduct.getBand(parameters[6]) != null)
             this.owiLandFlagName = parameters[6];
-        else
+        else if (requiredVariables.contains(OWI_LAND_FLAG))
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: owiLandFlag or owiMask not found");
 
         // owiIncidenceAngle
         if (sourceProduct.getBand(parameters[7]) != null)
             this.owiIncidenceAngleName = parameters[7];
-        else
+        else if (requiredVariables.contains(OWI_INCIDENCE_ANGLE))
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: owiIncidenceAngle not found");
     }
 
@@ -1,16 +1,21 @@
 package ie.marei.calmar;
 
-import com.bc.ceres.glevel.MultiLevelImage;
+import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.core.datamodel.*;
+import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.gpf.annotations.TargetProduct;
-import org.esa.snap.core.gpf.pointop.*;
+import org.esa.snap.core.util.ProductUtils;
 
-import java.awt.image.Raster;
+import java.awt.Rectangle;
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.util.*;
 
 /**
  * The <code>RestructureGeocodingOp</code> restructures Sentinel-1 Level-2 OCN datasets with a correct crs geocoding.
@@ -24,7 +29,10 @@ import java.awt.image.Raster;
         description = "This tool restructures Sentinel-1 Level-2 OCN datasets with a correct crs geocoding",
         authors = "Declan Dunne",
         copyright = "Copyright (C) 2021 MaREI")
-public class RestructureGeocodingOp extends PixelOperator {
+public class RestructureGeocodingOp extends Operator {
+
+    private static final String[] TARGET_VARIABLES = {OwiParameters.OWI_WIND_SPEED, OwiParameters.OWI_WIND_DIRECTION,
+            OwiParameters.OWI_WIND_QUALITY, OwiParameters.OWI_INCIDENCE_ANGLE};
 
     @SourceProduct(alias = "Name", description = "The source product")
     private Product sourceProduct;
@@ -32,135 +40,114 @@ public class RestructureGeocodingOp extends PixelOperator {
     @TargetProduct
     private Product targetProduct;
 
-    private OwiParameters owiParameters = null;
+    @Parameter(valueSet = {OwiParameters.OWI_WIND_SPEED, OwiParameters.OWI_WIND_DIRECTION,
+            OwiParameters.OWI_WIND_QUALITY, OwiParameters.OWI_INCIDENCE_ANGLE},
+            description = "The target bands to produce. If not set, all target bands are produced")
+    private String[] targetBands;
 
-    /**
-     * Configures all source samples that this operator requires for the computation of target samples.
-     * Source sample are defined by using the provided {@link SourceSampleConfigurer}.
-     * <p/>
-     * <p/> The method is called by {@link #initialize()}.
-     *
-     * @param sampleConfigurer The configurer that defines the layout of a pixel.
-     * @throws OperatorException If the source samples cannot be configured.
-     */
-    @Override
-    protected void configureSourceSamples(SourceSampleConfigurer sampleConfigurer) throws OperatorException {
-        OwiParameters owiParametersInst = getOwiParameters();
-        sampleConfigurer.defineSample(0, owiParametersInst.getOwiLatName());
-        sampleConfigurer.defineSample(1, owiParametersInst.getOwiLonName());
-        sampleConfigurer.defineSample(2, owiParametersInst.getOwiWindSpeedName());
-        sampleConfigurer.defineSample(3, owiParametersInst.getOwiWindDirectionName());
-        sampleConfigurer.defineSample(4, owiParametersInst.getOwiWindQualityName());
-        sampleConfigurer.defineSample(5, owiParametersInst.getOwiLandFlagName());
-        sampleConfigurer.defineSample(6, owiParametersInst.getOwiIncidenceAngleName());
-    }
+    @Parameter(defaultValue = "1", interval = "[1,*)", description = "Size of the blocks of owi cells which are " +
+            "averaged into one target pixel, e.g. 3 for 3x3 blocks. Wind speed, wind direction and incidence angle " +
+            "are weighted by owiWindQuality, land and no data cells are excluded")
+    private int aggregationFactor;
 
-    /**
-     * Configures all target samples computed by this operator.
-     * Target samples are defined by using the provided {@link TargetSampleConfigurer}.
-     * <p/>
-     * <p/> The method is called by {@link #initialize()}.
-     *
-     * @param sampleConfigurer The configurer that defines the layout of a pixel.
-     * @throws OperatorException If the target samples cannot be configured.
-     */
-    @Override
-    protected void configureTargetSamples(TargetSampleConfigurer sampleConfigurer) throws OperatorException {
-        OwiParameters owiParametersInst = getOwiParameters();
+    @Parameter(description = "Directory of the tile checkpoint journal. If set, completed tiles are recorded " +
+            "and a restarted run on the same input only computes the missing tiles")
+    private File checkpointDir;
 
-        String owiWindSpeedName = owiParametersInst.getOwiWindSpeedName();
-        sampleConfigurer.defineSample(0, owiWindSpeedName);
+    @Parameter(description = "Directory of the result cache. If set, results are cached by source product identity " +
+            "and operator parameters, and a matching request is answered with the cached product")
+    private File cacheDir;
 
-        String owiWindDirectionName = owiParametersInst.getOwiWindDirectionName();
-        sampleConfigurer.defineSample(1, owiWindDirectionName);
+    @Parameter(defaultValue = "10240", unit = "MB", description = "Maximum size of the result cache")
+    private long cacheMaxSize;
 
-        String owiWindQualityName = owiParametersInst.getOwiWindQualityName();
-        sampleConfigurer.defineSample(2, owiWindQualityName);
+    private OwiParameters owiParameters = null;
+    private ResultStore resultStore = null;
 
-        String owiIncidenceAngleName = owiParametersInst.getOwiIncidenceAngleName();
-        sampleConfigurer.defineSample(3, owiIncidenceAngleName);
-    }
+    private Band owiWindSpeedOutput;
+    private Band owiWindDirectionOutput;
+    private Band owiWindQualityOutput;
+    private Band owiIncidenceAngleOutput;
 
     /**
-     * Configures the target product via the given {@link ProductConfigurer}. Called by {@link #initialize()}.
+     * Initializes this operator and sets the one and only target product.
      * <p/>
-     * Client implementations of this method usually add product components to the given target product, such as
-     * {@link Band bands} to be computed by this operator,
-     * {@link VirtualBand virtual bands},
-     * {@link Mask masks}
-     * or {@link SampleCoding sample codings}.
+     * The target product contains the owiWindSpeed, owiWindDirection, owiWindQuality and owiIncidenceAngle bands
+     * of the source product, or the subset of them selected by targetBands, and lat and lon bands with a geocoding
+     * created from its owiLat and owiLon bands. The lat and lon grids are held off-heap.
      * <p/>
-     * The default implementation retrieves the (first) source product and copies to the target product
-     * <ul>
-     * <li>the start and stop time by calling {@link ProductConfigurer#copyTimeCoding()},</li>
-     * <li>all tie-point grids by calling {@link ProductConfigurer#copyTiePointGrids(String...)},</li>
-     * <li>the geo-coding by calling {@link ProductConfigurer#copyGeoCoding()}.</li>
-     * </ul>
+     * With an aggregationFactor greater than 1 the target product is smaller than the source product by this factor
+     * in both directions, and its lat and lon grids are the block means of the owiLat and owiLon grids.
      * <p/>
-     * Clients that require a similar behaviour in their operator shall first call the {@code super} method
-     * in their implementation.
+     * If the result cache holds the target product for the source product, target bands and aggregation factor,
+     * the cached product is the target product, and the source data are not read.
+     * <p/>
+     * The method is called by the framework before any tiles are computed.
      *
-     * @param productConfigurer The target product configurer.
-     * @throws OperatorException If the target product cannot be configured.
-     * @see Product#addBand(Band)
-     * @see Product#addBand(String, String)
-     * @see Product#addTiePointGrid(TiePointGrid)
-     * @see Product#getMaskGroup()
+     * @throws OperatorException If an error occurs during operator initialisation.
      */
     @Override
-    protected void configureTargetProduct(ProductConfigurer productConfigurer) {
-        /*
-        // metadata options
-        super.configureTargetProduct(productConfigurer);
-        productConfigurer.copyTimeCoding();
-        productConfigurer.copyTiePointGrids();
-        productConfigurer.copyGeoCoding();
-        */
-        productConfigurer.copyMetadata();
-        Product tp = productConfigurer.getTargetProduct();
+    public void initialize() throws OperatorException {
+        openTileJournal();
+        Product cachedProduct = resultStore != null ? resultStore.getCachedProduct("lat", "lon") : null;
+        if (cachedProduct != null) {
+            this.targetProduct = cachedProduct;
+            return;
+        }
+
+        OwiParameters owiParametersInst = getOwiParameters();
+
+        Band owiLatInput = owiParametersInst.getOwiLatBand();
+        int sourceWidth = owiLatInput.getRasterWidth();
+        int sourceHeight = owiLatInput.getRasterHeight();
+        int width = (sourceWidth + aggregationFactor - 1) / aggregationFactor;
+        int height = (sourceHeight + aggregationFactor - 1) / aggregationFactor;
+
+        Product tp = new Product(getId(), getClass().getName(), width, height);
+        ProductUtils.copyMetadata(sourceProduct, tp);
 
         /*
         // reproject option
-        Product tp = productConfigurer.getTargetProduct();
         Map<String, Object> reprojParams = new HashMap<String, Object>();
         reprojParams.put("crs", "EPSG:4326");
         //reprojParams.put("noDataValue", 0d);
         tp = GPF.createProduct("Reproject", reprojParams, tp);
         */
 
-        OwiParameters owiParametersInst = getOwiParameters();
-
         // .._001_owiWindSpeed
-        Band owiWindSpeedInput = owiParametersInst.getOwiWindSpeedBand();
-        String owiWindSpeedName = owiParametersInst.getOwiWindSpeedName();
-        final Band owiWindSpeedOutput = tp.addBand(owiWindSpeedName, ProductData.TYPE_FLOAT32);
-        owiWindSpeedOutput.setNoDataValue(-999.0);
-        owiWindSpeedOutput.setNoDataValueUsed(true);
-        owiWindSpeedOutput.setUnit("m/s");
+        if (isTargetBand(OwiParameters.OWI_WIND_SPEED)) {
+            String owiWindSpeedName = owiParametersInst.getOwiWindSpeedName();
+            owiWindSpeedOutput = tp.addBand(owiWindSpeedName, ProductData.TYPE_FLOAT32);
+            owiWindSpeedOutput.setNoDataValue(-999.0);
+            owiWindSpeedOutput.setNoDataValueUsed(true);
+            owiWindSpeedOutput.setUnit("m/s");
+        }
 
         // .._001_owiWindDirection
-        Band owiWindDirectionInput = owiParametersInst.getOwiWindDirectionBand();
-        String owiWindDirectionName = owiParametersInst.getOwiWindDirectionName();
-        final Band owiWindDirectionOutput = tp.addBand(owiWindDirectionName, ProductData.TYPE_FLOAT32);
-        owiWindDirectionOutput.setNoDataValue(-999.0);
-        owiWindDirectionOutput.setNoDataValueUsed(true);
-        owiWindDirectionOutput.setUnit("degrees");
+        if (isTargetBand(OwiParameters.OWI_WIND_DIRECTION)) {
+            String owiWindDirectionName = owiParametersInst.getOwiWindDirectionName();
+            owiWindDirectionOutput = tp.addBand(owiWindDirectionName, ProductData.TYPE_FLOAT32);
+            owiWindDirectionOutput.setNoDataValue(-999.0);
+            owiWindDirectionOutput.setNoDataValueUsed(true);
+            owiWindDirectionOutput.setUnit("degrees");
+        }
 
         // .._001_owiWindQuality
-        Band owiWindQualityInput = owiParametersInst.getOwiWindQualityBand();
-        String owiWindQualityName = owiParametersInst.getOwiWindQualityName();
-        final Band owiWindQualityOutput = tp.addBand(owiWindQualityName, ProductData.TYPE_UINT8);
-        owiWindQualityOutput.setNoDataValue(owiWindQualityInput.getGeophysicalNoDataValue());
-        owiWindQualityOutput.setNoDataValue(255);
-        owiWindQualityOutput.setNoDataValueUsed(true);
+        if (isTargetBand(OwiParameters.OWI_WIND_QUALITY)) {
+            String owiWindQualityName = owiParametersInst.getOwiWindQualityName();
+            owiWindQualityOutput = tp.addBand(owiWindQualityName, ProductData.TYPE_UINT8);
+            owiWindQualityOutput.setNoDataValue(255);
+            owiWindQualityOutput.setNoDataValueUsed(true);
+        }
 
         // .._001_owiIncidenceAngle
-        Band owiIncidenceAngleInput = owiParametersInst.getOwiIncidenceAngleBand();
-        String owiIncidenceAngleName = owiParametersInst.getOwiIncidenceAngleName();
-        final Band owiIncidenceAngleOutput = tp.addBand(owiIncidenceAngleName, ProductData.TYPE_FLOAT32);
-        owiIncidenceAngleOutput.setNoDataValue(-999.0);
-        owiIncidenceAngleOutput.setNoDataValueUsed(true);
-        owiIncidenceAngleOutput.setUnit("degrees");
+        if (isTargetBand(OwiParameters.OWI_INCIDENCE_ANGLE)) {
+            String owiIncidenceAngleName = owiParametersInst.getOwiIncidenceAngleName();
+            owiIncidenceAngleOutput = tp.addBand(owiIncidenceAngleName, ProductData.TYPE_FLOAT32);
+            owiIncidenceAngleOutput.setNoDataValue(-999.0);
+            owiIncidenceAngleOutput.setNoDataValueUsed(true);
+            owiIncidenceAngleOutput.setUnit("degrees");
+        }
 
         // .._001_owiLat
         RasterDataNode owiLat = sourceProduct.getRasterDataNode(owiParametersInst.getOwiLatName());
@@ -168,10 +155,7 @@ public class RestructureGeocodingOp extends PixelOperator {
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: missing " +
                     owiParametersInst.getOwiLatName() + " band");
         }
-        MultiLevelImage owiLatImage = owiLat.getGeophysicalImage();
-        Raster latImageData = owiLatImage.getData();
-        float[] latData = new float[latImageData.getWidth() * latImageData.getHeight()];
-        latData = latImageData.getPixels(0, 0, latImageData.getWidth(), latImageData.getHeight(), latData);
+        FloatBuffer latData = OffHeapLatLonGeoCoding.readOffHeap(owiLat);
 
         // .._001_owiLon
         RasterDataNode owiLon = sourceProduct.getRasterDataNode(owiParametersInst.getOwiLonName());
@@ -179,10 +163,7 @@ public class RestructureGeocodingOp extends PixelOperator {
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: missing " +
                     owiParametersInst.getOwiLonName() + " band");
         }
-        MultiLevelImage owiLonImage = owiLon.getGeophysicalImage();
-        Raster lonImageData = owiLonImage.getData();
-        float[] lonData = new float[lonImageData.getWidth() * lonImageData.getHeight()];
-        lonData = lonImageData.getPixels(0, 0, lonImageData.getWidth(), lonImageData.getHeight(), lonData);
+        FloatBuffer lonData = OffHeapLatLonGeoCoding.readOffHeap(owiLon);
 
         /*
         //PixelGeoCoding
@@ -198,82 +179,289 @@ public class RestructureGeocodingOp extends PixelOperator {
         tp.setSceneGeoCoding(pixelGeoCoding);
         */
 
-        //TiePointGrid
-        int width = owiWindSpeedInput.getRasterWidth();
-        int height = owiWindSpeedInput.getRasterHeight();
+        // block means of the lat/lon grids for an aggregated target product
+        if (aggregationFactor > 1) {
+            latData = LatLonUtils.aggregateMean(latData, sourceWidth, sourceHeight, aggregationFactor, false);
+            lonData = LatLonUtils.aggregateMean(lonData, sourceWidth, sourceHeight, aggregationFactor, true);
+        }
 
-        TiePointGrid latGrid = new TiePointGrid("lat", width, height, 0.0, 0.0, 1.0, 1.0, latData);
-        TiePointGrid lonGrid = new TiePointGrid("lon", width, height, 0.0, 0.0, 1.0, 1.0, lonData);
-        tp.addTiePointGrid(latGrid);
-        tp.addTiePointGrid(lonGrid);
-        TiePointGeoCoding tiePointGeoCoding = new TiePointGeoCoding(latGrid, lonGrid);
-        tp.setSceneGeoCoding(tiePointGeoCoding);
+        //OffHeapLatLonGeoCoding, the lat and lon bands share the off-heap grids with the geocoding
+        OffHeapLatLonGeoCoding.addLatLonBand(tp, "lat", latData, "degrees_north");
+        OffHeapLatLonGeoCoding.addLatLonBand(tp, "lon", lonData, "degrees_east");
+        tp.setSceneGeoCoding(new OffHeapLatLonGeoCoding(latData, lonData, width, height));
+
+        this.targetProduct = tp;
     }
 
     /**
-     * Computes the target samples from the given source samples.
+     * Computes the target tiles of all bands for the given target rectangle.
+     * <p/>
+     * Land pixels (owiLandFlag equal to 1) and no data pixels of the source bands are set to no data in the wind
+     * speed, wind direction and wind quality bands by {@link WindKernels#maskLand}. The incidence angle is copied
+     * unchanged.
      * <p/>
-     * The number of source/target samples is the maximum defined sample index plus one. Source/target samples are
-     * defined by using the respective sample configurer in the
-     * {@link #configureSourceSamples(SourceSampleConfigurer) configureSourceSamples} and
-     * {@link #configureTargetSamples(TargetSampleConfigurer) configureTargetSamples} methods.
-     * Attempts to read from source samples or write to target samples at undefined sample indices will
-     * cause undefined behaviour.
+     * With an aggregationFactor greater than 1 each target pixel is the block mean of the source pixels, computed by
+     * {@link WindKernels#aggregateMean}, see {@link #computeAggregatedTileStack}.
+     * <p/>
+     * If a checkpoint journal or result cache is used, tiles recorded by a previous run are restored without
+     * reading the source product, and newly computed tiles are recorded.
      *
-     * @param x             The current pixel's X coordinate.
-     * @param y             The current pixel's Y coordinate.
-     * @param sourceSamples The source samples (= source pixel).
-     * @param targetSamples The target samples (= target pixel).
+     * @param targetTiles     The current tiles to be computed for each target band.
+     * @param targetRectangle The area in pixel coordinates to be computed (same for all rasters in <code>targetRasters</code>).
+     * @param pm              A progress monitor which should be used to determine computation cancellation requests.
+     * @throws OperatorException If an error occurs during computation of the target rasters.
      */
     @Override
-    protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
+        if (resultStore != null && resultStore.restoreTile(targetTiles, targetRectangle)) {
+            return;
+        }
+        if (aggregationFactor > 1) {
+            computeAggregatedTileStack(targetTiles, targetRectangle, pm);
+            if (resultStore != null) {
+                resultStore.recordTile(targetTiles, targetRectangle);
+            }
+            return;
+        }
+
+        // only the source bands of the selected target bands are read
         OwiParameters owiParametersInst = getOwiParameters();
+        Tile owiWindSpeedTile = null;
+        Tile owiWindDirectionTile = null;
+        Tile owiWindQualityTile = null;
+        Tile owiLandFlagTile = null;
+        Tile owiIncidenceAngleTile = null;
+        Tile owiWindSpeedTarget = null;
+        Tile owiWindDirectionTarget = null;
+        Tile owiWindQualityTarget = null;
+        Tile owiIncidenceAngleTarget = null;
+        if (owiWindSpeedOutput != null) {
+            owiWindSpeedTile = getSourceTile(owiParametersInst.getOwiWindSpeedBand(), targetRectangle);
+            owiWindSpeedTarget = targetTiles.get(owiWindSpeedOutput);
+        }
+        if (owiWindDirectionOutput != null) {
+            owiWindDirectionTile = getSourceTile(owiParametersInst.getOwiWindDirectionBand(), targetRectangle);
+            owiWindDirectionTarget = targetTiles.get(owiWindDirectionOutput);
+        }
+        if (owiWindQualityOutput != null) {
+            owiWindQualityTile = getSourceTile(owiParametersInst.getOwiWindQualityBand(), targetRectangle);
+            owiWindQualityTarget = targetTiles.get(owiWindQualityOutput);
+        }
+        if (owiIncidenceAngleOutput != null) {
+            owiIncidenceAngleTile = getSourceTile(owiParametersInst.getOwiIncidenceAngleBand(), targetRectangle);
+            owiIncidenceAngleTarget = targetTiles.get(owiIncidenceAngleOutput);
+        }
+        if (owiWindSpeedTarget != null || owiWindDirectionTarget != null || owiWindQualityTarget != null) {
+            owiLandFlagTile = getSourceTile(owiParametersInst.getOwiLandFlagBand(), targetRectangle);
+        }
 
-        // get land flag pixel
-        double owiLandFlagPixel = sourceSamples[5].getDouble();
+        pm.beginTask("Restructuring OCN tile", 4);
+        try {
+            int width = targetRectangle.width;
+            int height = targetRectangle.height;
+            float[] owiLandFlagSamples = owiLandFlagTile != null ? owiLandFlagTile.getSamplesFloat() : null;
+
+            // get wind quality, and assign no data based on land flag
+            if (owiWindQualityTarget != null) {
+                owiWindQualityTarget.setSamples(maskLand(owiLandFlagSamples, owiWindQualityTile,
+                        getNoData(owiParametersInst.getOwiWindQualityBand()), width, height, 255.0f));
+            }
+            checkForCancellation();
+            pm.worked(1);
+
+            // get wind speed, and assign no data based on land flag
+            if (owiWindSpeedTarget != null) {
+                owiWindSpeedTarget.setSamples(maskLand(owiLandFlagSamples, owiWindSpeedTile,
+                        getNoData(owiParametersInst.getOwiWindSpeedBand()), width, height, -999.0f));
+            }
+            checkForCancellation();
+            pm.worked(1);
+
+            // get wind direction, and assign no data based on land flag
+            if (owiWindDirectionTarget != null) {
+                owiWindDirectionTarget.setSamples(maskLand(owiLandFlagSamples, owiWindDirectionTile,
+                        getNoData(owiParametersInst.getOwiWindDirectionBand()), width, height, -999.0f));
+            }
+            checkForCancellation();
+            pm.worked(1);
+
+            // get incidence angle
+            if (owiIncidenceAngleTarget != null) {
+                owiIncidenceAngleTarget.setSamples(owiIncidenceAngleTile.getSamplesFloat());
+            }
+            pm.worked(1);
+        } finally {
+            pm.done();
+        }
 
-        // get wind quality, and assign no data based on land flag
-        int owiWindQualityPixel = sourceSamples[4].getInt();
-        if (owiLandFlagPixel == 1.0) {
-            targetSamples[2].set(255);
-        } else {
-            targetSamples[2].set(owiWindQualityPixel);
+        if (resultStore != null) {
+            resultStore.recordTile(targetTiles, targetRectangle);
         }
+    }
 
-        // get wind speed, and assign no data based on land flag and wind quality
-        double owiWindSpeedPixel = sourceSamples[2].getDouble();
-        if (owiLandFlagPixel == 1.0) {
-            targetSamples[0].set(-999.0);
-        } else {
-            targetSamples[0].set(owiWindSpeedPixel);
+    /**
+     * Computes the target tiles as block means of the source pixels.
+     * <p/>
+     * Land cells are excluded from all block means. Wind speed, wind direction and incidence angle are weighted by
+     * {@link WindKernels#getQualityWeight} of their owiWindQuality, so poor quality cells are excluded, and the wind
+     * direction is a circular mean. The wind quality is the rounded mean of the sea cells. Blocks without valid
+     * cells are set to no data.
+     */
+    private void computeAggregatedTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) {
+        OwiParameters owiParametersInst = getOwiParameters();
+        Band owiLatInput = owiParametersInst.getOwiLatBand();
+        Rectangle sourceRectangle = new Rectangle(targetRectangle.x * aggregationFactor,
+                targetRectangle.y * aggregationFactor, targetRectangle.width * aggregationFactor,
+                targetRectangle.height * aggregationFactor).intersection(
+                new Rectangle(0, 0, owiLatInput.getRasterWidth(), owiLatInput.getRasterHeight()));
+
+        // land cells have no weight, sea cells are weighted by their wind quality
+        Tile owiLandFlagTile = getSourceTile(owiParametersInst.getOwiLandFlagBand(), sourceRectangle);
+        Tile owiWindQualityTile = getSourceTile(owiParametersInst.getOwiWindQualityBand(), sourceRectangle);
+        float[] owiLandFlagSamples = owiLandFlagTile.getSamplesFloat();
+        float[] owiWindQualitySamples = owiWindQualityTile.getSamplesFloat();
+        float[] seaWeights = new float[owiLandFlagSamples.length];
+        float[] qualityWeights = new float[owiLandFlagSamples.length];
+        for (int i = 0; i < owiLandFlagSamples.length; i++) {
+            boolean land = owiLandFlagSamples[i] == 1.0f;
+            seaWeights[i] = land ? 0.0f : 1.0f;
+            qualityWeights[i] = land ? 0.0f : WindKernels.getQualityWeight(owiWindQualitySamples[i]);
         }
 
-        // get wind direction, and assign no data based on land flag and wind quality
-        double owiWindDirectionPixel = sourceSamples[3].getDouble();
-        if (owiLandFlagPixel == 1.0) {
-            targetSamples[1].set(-999.0);
-        } else {
-            targetSamples[1].set(owiWindDirectionPixel);
+        pm.beginTask("Aggregating OCN tile", 4);
+        try {
+            if (owiWindQualityOutput != null) {
+                float[] samples = aggregate(owiWindQualitySamples, seaWeights, sourceRectangle, targetRectangle,
+                        getNoData(owiParametersInst.getOwiWindQualityBand()), 255.0f, false);
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = Math.round(samples[i]);
+                }
+                targetTiles.get(owiWindQualityOutput).setSamples(samples);
+            }
+            checkForCancellation();
+            pm.worked(1);
+
+            if (owiWindSpeedOutput != null) {
+                Band owiWindSpeedInput = owiParametersInst.getOwiWindSpeedBand();
+                float[] samples = aggregate(getSourceTile(owiWindSpeedInput, sourceRectangle).getSamplesFloat(),
+                        qualityWeights, sourceRectangle, targetRectangle, getNoData(owiWindSpeedInput), -999.0f, false);
+                targetTiles.get(owiWindSpeedOutput).setSamples(samples);
+            }
+            checkForCancellation();
+            pm.worked(1);
+
+            if (owiWindDirectionOutput != null) {
+                Band owiWindDirectionInput = owiParametersInst.getOwiWindDirectionBand();
+                float[] samples = aggregate(getSourceTile(owiWindDirectionInput, sourceRectangle).getSamplesFloat(),
+                        qualityWeights, sourceRectangle, targetRectangle, getNoData(owiWindDirectionInput), -999.0f, true);
+                targetTiles.get(owiWindDirectionOutput).setSamples(samples);
+            }
+            checkForCancellation();
+            pm.worked(1);
+
+            if (owiIncidenceAngleOutput != null) {
+                Band owiIncidenceAngleInput = owiParametersInst.getOwiIncidenceAngleBand();
+                float[] samples = aggregate(getSourceTile(owiIncidenceAngleInput, sourceRectangle).getSamplesFloat(),
+                        qualityWeights, sourceRectangle, targetRectangle, getNoData(owiIncidenceAngleInput), -999.0f, false);
+                targetTiles.get(owiIncidenceAngleOutput).setSamples(samples);
+            }
+            pm.worked(1);
+        } finally {
+            pm.done();
         }
+    }
 
-        // get incidence angle
-        double owiIncidenceAnglePixel = sourceSamples[6].getDouble();
-        targetSamples[3].set(owiIncidenceAnglePixel);
+    private float[] aggregate(float[] sourceSamples, float[] weights, Rectangle sourceRectangle,
+                              Rectangle targetRectangle, float sourceNoData, float targetNoData, boolean circular) {
+        float[] samples = new float[targetRectangle.width * targetRectangle.height];
+        WindKernels.aggregateMean(sourceSamples, 0, sourceRectangle.width, weights, 0, sourceRectangle.width,
+                samples, 0, targetRectangle.width, sourceRectangle.width, sourceRectangle.height, aggregationFactor,
+                sourceNoData, targetNoData, circular);
+        return samples;
+    }
+
+    private static float getNoData(Band band) {
+        return band.isNoDataValueUsed() ? (float) band.getGeophysicalNoDataValue() : Float.NaN;
+    }
+
+    /**
+     * Releases the resources of this operator. If a result cache is used and all target tiles have been computed,
+     * the target product is stored in the cache entry. The lock of the cache entry is released, and least recently
+     * used result cache entries are evicted if the cache has grown beyond its maximum size.
+     */
+    @Override
+    public void dispose() {
+        if (resultStore != null) {
+            resultStore.close(targetProduct);
+        }
+        super.dispose();
+    }
+
+    /**
+     * Opens the tile journal, either the checkpoint journal or the result cache entry for the source product and
+     * the target bands and aggregation factor. Tiles found in the journal are restored instead of being computed, and a
+     * result cache entry may hold the complete target product.
+     */
+    private void openTileJournal() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("targetBands", getTargetBandNames());
+        parameters.put("aggregationFactor", aggregationFactor);
+        resultStore = ResultStore.open(getClass(), parameters, sourceProduct, checkpointDir, cacheDir, cacheMaxSize);
+    }
+
+    /**
+     * Returns the samples of the source tile with land pixels and no data pixels set to the fill value.
+     */
+    private static float[] maskLand(float[] owiLandFlagSamples, Tile sourceTile, float noData, int width, int height,
+                                    float fillValue) {
+        float[] samples = sourceTile.getSamplesFloat();
+        WindKernels.maskLand(owiLandFlagSamples, 0, width, samples, 0, width, samples, 0, width, width, height, noData,
+                fillValue);
+        return samples;
+    }
+
+    /**
+     * Returns true if the given owi variable is a selected target band. All target bands are selected if
+     * targetBands is not set.
+     */
+    private boolean isTargetBand(String variableName) {
+        return targetBands == null || targetBands.length == 0 || Arrays.asList(targetBands).contains(variableName);
+    }
+
+    /**
+     * Returns the selected target bands in a fixed order.
+     */
+    private List<String> getTargetBandNames() {
+        List<String> targetBandNames = new ArrayList<>();
+        for (String variableName : TARGET_VARIABLES) {
+            if (isTargetBand(variableName)) {
+                targetBandNames.add(variableName);
+            }
+        }
+        return targetBandNames;
     }
 
     /**
      * Initialises owiParameters.
      * <p/>
-     * We use this method because other code invokes overridden functions such as configureSourceSamples,
-     * configureTargetSamples and configureTargetProduct. We cannot assume one of these function is always called first
-     * to initialise owiParameters. Also, a constructor method to initialise owiParameters will not work because
-     * this.sourceProduct is not yet assigned a value at that constructor phase.
+     * We use this method because other code invokes overridden functions such as initialize and computeTileStack.
+     * We cannot assume one of these function is always called first to initialise owiParameters. Also, a
+     * constructor method to initialise owiParameters will not work because this.sourceProduct is not yet assigned
+     * a value at that constructor phase.
      * <p/>
      * We use this function to guarantee that this.owiParameters is assigned a value once.
      */
     private OwiParameters getOwiParameters() {
         if (this.owiParameters == null) {
-            this.owiParameters = new OwiParameters(this.sourceProduct);
+            List<String> requiredVariables = getTargetBandNames();
+            if (aggregationFactor > 1) {
+                // the land flag and wind quality give the weights of the block means
+                requiredVariables.add(OwiParameters.OWI_LAND_FLAG);
+                requiredVariables.add(OwiParameters.OWI_WIND_QUALITY);
+            } else if (!requiredVariables.equals(Collections.singletonList(OwiParameters.OWI_INCIDENCE_ANGLE))) {
+                requiredVariables.add(OwiParameters.OWI_LAND_FLAG);
+            }
+            this.owiParameters = new OwiParameters(this.sourceProduct, requiredVariables);
         }
         return this.owiParameters;
     }
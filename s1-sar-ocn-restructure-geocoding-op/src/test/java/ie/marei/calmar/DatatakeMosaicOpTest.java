@@ -0,0 +1,234 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.OperatorException;
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class DatatakeMosaicOpTest {
+
+    private static final int WIDTH = 5;
+
+    @Test
+    public void testCountOverlapRows() {
+        FloatBuffer[] prev = createSlice(0, 10);
+        FloatBuffer[] next = createSlice(7, 10);
+        assertEquals(3, DatatakeMosaicOp.countOverlapRows(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+    }
+
+    @Test
+    public void testCountOverlapRows_noOverlap() {
+        FloatBuffer[] prev = createSlice(0, 10);
+        FloatBuffer[] next = createSlice(10, 10);
+        assertEquals(0, DatatakeMosaicOp.countOverlapRows(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+    }
+
+    @Test
+    public void testCountOverlapRows_ascending() {
+        FloatBuffer[] prev = createSlice(0, 10, 0.01f);
+        FloatBuffer[] next = createSlice(8, 10, 0.01f);
+        assertEquals(2, DatatakeMosaicOp.countOverlapRows(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+    }
+
+    @Test
+    public void testCountOverlapRows_nanAtSeam() {
+        FloatBuffer[] prev = createSlice(0, 10);
+        FloatBuffer[] next = createSlice(7, 10);
+        // no geolocation in the centre column at the seam and in the first column of the next slice
+        for (int y = 8; y < 10; y++) {
+            prev[0].put(y * WIDTH + WIDTH / 2, Float.NaN);
+        }
+        next[1].put(WIDTH / 2, Float.NaN);
+        next[0].put(0, Float.NaN);
+
+        assertEquals(1, DatatakeMosaicOp.findSeamColumn(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+        assertEquals(3, DatatakeMosaicOp.countOverlapRows(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+    }
+
+    @Test
+    public void testCountOverlapRows_noFiniteColumn() {
+        FloatBuffer[] prev = createSlice(0, 10);
+        FloatBuffer[] next = createSlice(7, 10);
+        for (int x = 0; x < WIDTH; x++) {
+            next[0].put(x, Float.NaN);
+        }
+
+        assertEquals(-1, DatatakeMosaicOp.findSeamColumn(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+        assertEquals(0, DatatakeMosaicOp.countOverlapRows(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+    }
+
+    @Test
+    public void testCountOverlapRows_nanInOverlapStopsCounting() {
+        FloatBuffer[] prev = createSlice(0, 10);
+        FloatBuffer[] next = createSlice(7, 10);
+        for (int x = 0; x < WIDTH; x++) {
+            next[0].put(WIDTH + x, Float.NaN);
+        }
+
+        assertEquals(1, DatatakeMosaicOp.countOverlapRows(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+    }
+
+    @Test
+    public void testCountOverlapRows_noRowSpacing() {
+        FloatBuffer[] prev = createSlice(0, 10);
+        FloatBuffer[] next = createSlice(7, 10);
+        for (int x = 0; x < WIDTH; x++) {
+            prev[0].put(8 * WIDTH + x, prev[0].get(9 * WIDTH + x));
+            prev[1].put(8 * WIDTH + x, prev[1].get(9 * WIDTH + x));
+        }
+
+        assertEquals(0, DatatakeMosaicOp.countOverlapRows(prev[0], prev[1], 10, next[0], next[1], 10, WIDTH));
+    }
+
+    @Test
+    public void testMergeSlices() {
+        DatatakeMosaicOp op = new DatatakeMosaicOp();
+        op.setSourceProducts(createSliceProduct("slice1", 0, 10, 10), createSliceProduct("slice2", 7, 10, 10));
+
+        Product targetProduct = op.getTargetProduct();
+
+        assertEquals(WIDTH, targetProduct.getSceneRasterWidth());
+        assertEquals(17, targetProduct.getSceneRasterHeight());
+        for (String bandName : new String[]{"vv_001_owiLat", "vv_001_owiLon", "vv_001_owiWindSpeed",
+                "vv_001_owiWindDirection", "vv_001_owiWindQuality", "vv_001_owiLandFlag",
+                "vv_001_owiIncidenceAngle"}) {
+            Band band = targetProduct.getBand(bandName);
+            assertEquals(bandName, WIDTH, band.getRasterWidth());
+            assertEquals(bandName, 17, band.getRasterHeight());
+        }
+
+        Band windSpeed = targetProduct.getBand("vv_001_owiWindSpeed");
+        assertEquals("m/s", windSpeed.getUnit());
+        assertTrue(windSpeed.isNoDataValueUsed());
+        assertEquals(-999.0, windSpeed.getNoDataValue(), 0.0);
+        assertEquals(0.5, windSpeed.getScalingFactor(), 0.0);
+        assertEquals("vv_001_owiWindQuality < 3", windSpeed.getValidPixelExpression());
+
+        // the samples hold the along track row, the overlap rows of the second slice are skipped
+        float[] samples = windSpeed.getSourceImage().getData().getSamples(0, 0, WIDTH, 17, 0, (float[]) null);
+        for (int y = 0; y < 17; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(y, samples[y * WIDTH + x], 0.0f);
+            }
+        }
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testMergeSlices_bandSizeMismatch() {
+        DatatakeMosaicOp op = new DatatakeMosaicOp();
+        op.setSourceProducts(createSliceProduct("slice1", 0, 10, 10), createSliceProduct("slice2", 7, 10, 8));
+
+        op.getTargetProduct();
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testMergeSlices_gap() {
+        DatatakeMosaicOp op = new DatatakeMosaicOp();
+        op.setSourceProducts(createSliceProduct("slice1", 0, 10, 10), createSliceProduct("slice2", 12, 10, 10));
+
+        op.getTargetProduct();
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testMergeSlices_sliceWithinPrevious() {
+        DatatakeMosaicOp op = new DatatakeMosaicOp();
+        op.setSourceProducts(createSliceProduct("slice1", 0, 10, 10), createSliceProduct("slice2", 2, 6, 6));
+
+        op.getTargetProduct();
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testMergeSlices_otherProductType() {
+        Product other = createSliceProduct("slice2", 7, 10, 10);
+        other.setProductType("GRD");
+        DatatakeMosaicOp op = new DatatakeMosaicOp();
+        op.setSourceProducts(createSliceProduct("slice1", 0, 10, 10), other);
+
+        op.getTargetProduct();
+    }
+
+    @Test
+    public void testGetDatatake() {
+        assertEquals("S1A_0434A1", DatatakeMosaicOp.getDatatake(new Product(
+                "S1A_IW_OCN__2SDV_20210101T060000_20210101T060025_035912_0434A1_ABCD", "OCN", 1, 1)));
+        assertNull(DatatakeMosaicOp.getDatatake(new Product("slice1", "OCN", 1, 1)));
+    }
+
+    @Test
+    public void testCheckDatatake() {
+        DatatakeMosaicOp.checkDatatake(new Product[]{
+                new Product("S1A_IW_OCN__2SDV_20210101T060000_20210101T060025_035912_0434A1_ABCD", "OCN", 1, 1),
+                new Product("S1A_IW_OCN__2SDV_20210101T060025_20210101T060050_035912_0434A1_EF01", "OCN", 1, 1)});
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testCheckDatatake_otherDatatake() {
+        DatatakeMosaicOp.checkDatatake(new Product[]{
+                new Product("S1A_IW_OCN__2SDV_20210101T060000_20210101T060025_035912_0434A1_ABCD", "OCN", 1, 1),
+                new Product("S1B_IW_OCN__2SDV_20210101T060025_20210101T060050_024581_0434A1_EF01", "OCN", 1, 1)});
+    }
+
+    /**
+     * Creates a slice product whose data bands hold the along track row. The data bands may have fewer rows than
+     * the lat and lon bands.
+     */
+    private static Product createSliceProduct(String name, int firstRow, int height, int dataHeight) {
+        FloatBuffer[] latLonData = createSlice(firstRow, height);
+        FloatBuffer rowData = FloatBuffer.allocate(WIDTH * dataHeight);
+        for (int y = firstRow; y < firstRow + dataHeight; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                rowData.put(y);
+            }
+        }
+        rowData.rewind();
+
+        Product product = new Product(name, "OCN", WIDTH, height);
+        addBand(product, "vv_001_owiLat", latLonData[0], height);
+        addBand(product, "vv_001_owiLon", latLonData[1], height);
+        Band windSpeed = addBand(product, "vv_001_owiWindSpeed", rowData, dataHeight);
+        windSpeed.setUnit("m/s");
+        windSpeed.setNoDataValue(-999.0);
+        windSpeed.setNoDataValueUsed(true);
+        windSpeed.setScalingFactor(0.5);
+        windSpeed.setValidPixelExpression("vv_001_owiWindQuality < 3");
+        for (String bandName : new String[]{"vv_001_owiWindDirection", "vv_001_owiWindQuality",
+                "vv_001_owiLandFlag", "vv_001_owiIncidenceAngle"}) {
+            addBand(product, bandName, rowData, dataHeight);
+        }
+        return product;
+    }
+
+    private static Band addBand(Product product, String bandName, FloatBuffer data, int height) {
+        Band band = new Band(bandName, ProductData.TYPE_FLOAT32, WIDTH, height);
+        band.setSourceImage(new FloatBufferImage(data, WIDTH, height, new Dimension(WIDTH, height)));
+        product.addBand(band);
+        return band;
+    }
+
+    private static FloatBuffer[] createSlice(int firstRow, int height) {
+        return createSlice(firstRow, height, -0.01f);
+    }
+
+    /**
+     * Creates the lat and lon grids of a slice of a datatake, starting at the given along track row.
+     */
+    private static FloatBuffer[] createSlice(int firstRow, int height, float latStep) {
+        FloatBuffer latData = FloatBuffer.allocate(WIDTH * height);
+        FloatBuffer lonData = FloatBuffer.allocate(WIDTH * height);
+        for (int y = firstRow; y < firstRow + height; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                latData.put(53.0f + latStep * y + 0.002f * x);
+                lonData.put(-10.0f + 0.02f * x - 0.003f * y);
+            }
+        }
+        latData.rewind();
+        lonData.rewind();
+        return new FloatBuffer[]{latData, lonData};
+    }
+}
@@ -0,0 +1,207 @@
+package ie.marei.calmar;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InboxProcessorTest {
+
+    private static final long SETTLE_MILLIS = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testTakeSettledEntries_waitsForSettleTime() throws Exception {
+        Path inboxDir = temporaryFolder.newFolder("inbox").toPath();
+        InboxProcessor inboxProcessor = createInboxProcessor(inboxDir);
+        Path entry = createSafe(inboxDir, "S1A_IW_OCN__2SDV.SAFE");
+        long now = System.currentTimeMillis();
+
+        inboxProcessor.addPendingEntry(entry);
+
+        assertTrue(inboxProcessor.takeSettledEntries(now).isEmpty());
+        assertTrue(inboxProcessor.takeSettledEntries(now + SETTLE_MILLIS - 1).isEmpty());
+        assertEquals(Collections.singleton(entry), inboxProcessor.takeSettledEntries(now + SETTLE_MILLIS).keySet());
+        assertTrue(inboxProcessor.takeSettledEntries(now + 2 * SETTLE_MILLIS).isEmpty());
+    }
+
+    @Test
+    public void testTakeSettledEntries_changeRestartsSettleTime() throws Exception {
+        Path inboxDir = temporaryFolder.newFolder("inbox").toPath();
+        InboxProcessor inboxProcessor = createInboxProcessor(inboxDir);
+        Path entry = createSafe(inboxDir, "S1A_IW_OCN__2SDV.SAFE");
+        long now = System.currentTimeMillis();
+
+        inboxProcessor.addPendingEntry(entry);
+        assertTrue(inboxProcessor.takeSettledEntries(now).isEmpty());
+        Files.createDirectories(entry.resolve("measurement"));
+        Files.write(entry.resolve("measurement").resolve("s1a-iw-ocn-vv.nc"), new byte[100]);
+
+        assertTrue(inboxProcessor.takeSettledEntries(now + SETTLE_MILLIS).isEmpty());
+        assertEquals(Collections.singleton(entry), inboxProcessor.takeSettledEntries(now + 2 * SETTLE_MILLIS).keySet());
+    }
+
+    @Test
+    public void testTakeSettledEntries_safeWithoutManifest() throws Exception {
+        Path inboxDir = temporaryFolder.newFolder("inbox").toPath();
+        InboxProcessor inboxProcessor = createInboxProcessor(inboxDir);
+        Path entry = Files.createDirectories(inboxDir.resolve("S1A_IW_OCN__2SDV.SAFE").resolve("measurement"))
+                .getParent();
+        Files.write(entry.resolve("measurement").resolve("s1a-iw-ocn-vv.nc"), new byte[100]);
+        long now = System.currentTimeMillis();
+
+        inboxProcessor.addPendingEntry(entry);
+        assertTrue(inboxProcessor.takeSettledEntries(now).isEmpty());
+        assertTrue(inboxProcessor.takeSettledEntries(now + 10 * SETTLE_MILLIS).isEmpty());
+
+        Files.write(entry.resolve("manifest.safe"), new byte[10]);
+        assertTrue(inboxProcessor.takeSettledEntries(now + 11 * SETTLE_MILLIS).isEmpty());
+        assertEquals(Collections.singleton(entry), inboxProcessor.takeSettledEntries(now + 12 * SETTLE_MILLIS).keySet());
+    }
+
+    @Test
+    public void testTakeSettledEntries_ignoredAndDeletedEntries() throws Exception {
+        Path inboxDir = temporaryFolder.newFolder("inbox").toPath();
+        InboxProcessor inboxProcessor = createInboxProcessor(inboxDir);
+        Path partialEntry = Files.write(inboxDir.resolve("S1A_IW_OCN__2SDV.zip.part"), new byte[10]);
+        Path hiddenEntry = Files.write(inboxDir.resolve(".S1A_IW_OCN__2SDV.zip"), new byte[10]);
+        Path deletedEntry = Files.write(inboxDir.resolve("S1B_IW_OCN__2SDV.zip"), new byte[10]);
+        long now = System.currentTimeMillis();
+
+        inboxProcessor.addPendingEntry(partialEntry);
+        inboxProcessor.addPendingEntry(hiddenEntry);
+        inboxProcessor.addPendingEntry(inboxDir.resolve("processed"));
+        inboxProcessor.addPendingEntry(deletedEntry);
+        assertTrue(inboxProcessor.takeSettledEntries(now).isEmpty());
+        Files.delete(deletedEntry);
+
+        assertTrue(inboxProcessor.takeSettledEntries(now + SETTLE_MILLIS).isEmpty());
+    }
+
+    @Test
+    public void testIsComplete() throws Exception {
+        Path inboxDir = temporaryFolder.newFolder("inbox").toPath();
+        Path zipEntry = Files.write(inboxDir.resolve("S1A_IW_OCN__2SDV.zip"), new byte[10]);
+        Path safeEntry = Files.createDirectories(inboxDir.resolve("S1A_IW_OCN__2SDV.SAFE"));
+
+        assertTrue(InboxProcessor.isComplete(zipEntry));
+        assertFalse(InboxProcessor.isComplete(safeEntry));
+        Files.write(safeEntry.resolve("manifest.safe"), new byte[10]);
+        assertTrue(InboxProcessor.isComplete(safeEntry));
+    }
+
+    @Test
+    public void testConvertParameters() {
+        Map<String, String> parameterTexts = new LinkedHashMap<>();
+        parameterTexts.put("targetBands", "owiWindSpeed,owiWindDirection");
+        parameterTexts.put("aggregationFactor", "3");
+
+        Map<String, Object> parameters = InboxProcessor.convertParameters(new RestructureGeocodingOp.Spi(),
+                                                                          parameterTexts);
+
+        assertArrayEquals(new String[]{"owiWindSpeed", "owiWindDirection"}, (String[]) parameters.get("targetBands"));
+        assertEquals(3, parameters.get("aggregationFactor"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConvertParameters_unknownParameter() {
+        InboxProcessor.convertParameters(new RestructureGeocodingOp.Spi(),
+                                         Collections.singletonMap("windHeight", "100"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConvertParameters_invalidValue() {
+        InboxProcessor.convertParameters(new RestructureGeocodingOp.Spi(),
+                                         Collections.singletonMap("aggregationFactor", "three"));
+    }
+
+    @Test
+    public void testMoveToDoneDir() throws Exception {
+        Path inboxDir = temporaryFolder.newFolder("inbox").toPath();
+        Path doneDir = Files.createDirectories(inboxDir.resolve("processed"));
+        Path entry = createSafe(inboxDir, "S1A_IW_OCN__2SDV.SAFE");
+
+        Path moved = InboxProcessor.moveToDoneDir(entry, doneDir);
+
+        assertEquals(doneDir.resolve("S1A_IW_OCN__2SDV.SAFE"), moved);
+        assertTrue(Files.isRegularFile(moved.resolve("manifest.safe")));
+        assertFalse(Files.exists(entry));
+    }
+
+    @Test
+    public void testMoveToDoneDir_nameTaken() throws Exception {
+        Path inboxDir = temporaryFolder.newFolder("inbox").toPath();
+        Path doneDir = Files.createDirectories(inboxDir.resolve("failed"));
+        createSafe(doneDir, "S1A_IW_OCN__2SDV.SAFE");
+
+        Path first = InboxProcessor.moveToDoneDir(createSafe(inboxDir, "S1A_IW_OCN__2SDV.SAFE"), doneDir);
+        Path second = InboxProcessor.moveToDoneDir(createSafe(inboxDir, "S1A_IW_OCN__2SDV.SAFE"), doneDir);
+
+        assertNotEquals(first, second);
+        assertTrue(first.getFileName().toString().matches("S1A_IW_OCN__2SDV_\\d{8}T\\d{6}\\.SAFE"));
+        assertTrue(second.getFileName().toString().matches("S1A_IW_OCN__2SDV_\\d{8}T\\d{6}(_2)?\\.SAFE"));
+        assertTrue(Files.isRegularFile(doneDir.resolve("S1A_IW_OCN__2SDV.SAFE").resolve("manifest.safe")));
+        assertFalse(Files.exists(inboxDir.resolve("S1A_IW_OCN__2SDV.SAFE")));
+        assertEquals(3, new File(doneDir.toString()).list().length);
+    }
+
+    @Test
+    public void testGetOutputFile_nameTaken() throws Exception {
+        Path outboxDir = temporaryFolder.newFolder("outbox").toPath();
+        String baseName = "S1A_IW_OCN__2SDV_OCN-Restructure-Geocoding";
+
+        File first = InboxProcessor.getOutputFile(outboxDir, baseName, ".dim");
+        assertEquals(outboxDir.resolve(baseName + ".dim").toFile(), first);
+        Files.write(first.toPath(), new byte[10]);
+
+        File second = InboxProcessor.getOutputFile(outboxDir, baseName, ".dim");
+        assertTrue(second.getName().matches(baseName + "_\\d{8}T\\d{6}\\.dim"));
+        Files.write(second.toPath(), new byte[10]);
+
+        File third = InboxProcessor.getOutputFile(outboxDir, baseName, ".dim");
+        assertNotEquals(second, third);
+        assertTrue(third.getName().matches(baseName + "_\\d{8}T\\d{6}(_2)?\\.dim"));
+    }
+
+    @Test
+    public void testStop_closesWatchService() throws Exception {
+        InboxProcessor inboxProcessor = createInboxProcessor(temporaryFolder.newFolder("inbox").toPath());
+        Thread watchThread = new Thread(() -> {
+            try {
+                inboxProcessor.watch();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        watchThread.start();
+        for (int i = 0; i < 500 && watchThread.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(10);
+        }
+
+        inboxProcessor.stop();
+        watchThread.join(5000);
+
+        assertFalse(watchThread.isAlive());
+    }
+
+    private static InboxProcessor createInboxProcessor(Path inboxDir) {
+        return new InboxProcessor(inboxDir, inboxDir.resolveSibling("outbox"), "OCN-Restructure-Geocoding",
+                                  Collections.emptyMap(), "BEAM-DIMAP", null, SETTLE_MILLIS);
+    }
+
+    private static Path createSafe(Path dir, String name) throws Exception {
+        Path safeDir = Files.createDirectories(dir.resolve(name));
+        Files.write(safeDir.resolve("manifest.safe"), new byte[10]);
+        return safeDir;
+    }
+}
@@ -0,0 +1,48 @@
+package ie.marei.calmar;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.OperatorException;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class OwiParametersTest {
+
+    @Test
+    public void testRequiredVariables() {
+        Product product = createProduct("vv_001_owiLat", "vv_001_owiLon", "vv_001_owiWindSpeed", "vv_001_owiMask");
+
+        OwiParameters owiParameters = new OwiParameters(product,
+                Arrays.asList(OwiParameters.OWI_WIND_SPEED, OwiParameters.OWI_LAND_FLAG));
+        assertEquals("vv_001_owiWindSpeed", owiParameters.getOwiWindSpeedName());
+        assertEquals("vv_001_owiMask", owiParameters.getOwiLandFlagName());
+        assertEquals("", owiParameters.getOwiWindDirectionName());
+        assertNull(owiParameters.getOwiIncidenceAngleBand());
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testRequiredVariables_missing() {
+        Product product = createProduct("vv_001_owiLat", "vv_001_owiLon", "vv_001_owiWindSpeed", "vv_001_owiLandFlag");
+
+        new OwiParameters(product, Arrays.asList(OwiParameters.OWI_WIND_DIRECTION, OwiParameters.OWI_LAND_FLAG));
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testAllVariables_missing() {
+        Product product = createProduct("hh_001_owiLat", "hh_001_owiLon", "hh_001_owiWindSpeed", "hh_001_owiLandFlag");
+
+        new OwiParameters(product);
+    }
+
+    private static Product createProduct(String... bandNames) {
+        Product product = new Product("dummy", "dummy", 10, 10);
+        for (String bandName : bandNames) {
+            product.addBand(new Band(bandName, ProductData.TYPE_FLOAT32, 10, 10));
+        }
+        return product;
+    }
+}
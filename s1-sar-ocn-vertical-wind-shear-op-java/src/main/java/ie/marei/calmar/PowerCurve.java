@@ -0,0 +1,144 @@
+package ie.marei.calmar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The <code>PowerCurve</code> is a wind turbine power curve, giving the turbine output for a hub height wind speed.
+ * <p/>
+ * The output is interpolated linearly between the points of the curve. Below the first and above the last wind
+ * speed of the curve (cut-in and cut-out) the output is 0. The curve is sampled once into a table with a fixed wind
+ * speed step, so the output of a pixel is found by indexing the table instead of searching the curve.
+ */
+public class PowerCurve {
+
+    private static final double TABLE_STEP = 0.01;
+
+    private final double[] windSpeeds;
+    private final double[] powers;
+    private final double[] table;
+
+    /**
+     * Creates the power curve.
+     *
+     * @param windSpeeds The wind speeds of the curve points in m/s, strictly increasing.
+     * @param powers     The turbine outputs of the curve points.
+     */
+    public PowerCurve(double[] windSpeeds, double[] powers) {
+        if (windSpeeds.length < 2 || windSpeeds.length != powers.length) {
+            throw new IllegalArgumentException("A power curve requires at least two points");
+        }
+        if (windSpeeds[0] < 0.0) {
+            throw new IllegalArgumentException("Power curve wind speeds must not be negative");
+        }
+        for (int i = 1; i < windSpeeds.length; i++) {
+            if (windSpeeds[i] <= windSpeeds[i - 1]) {
+                throw new IllegalArgumentException("Power curve wind speeds must be strictly increasing");
+            }
+        }
+        this.windSpeeds = windSpeeds.clone();
+        this.powers = powers.clone();
+
+        int tableSize = (int) Math.ceil(windSpeeds[windSpeeds.length - 1] / TABLE_STEP) + 2;
+        this.table = new double[tableSize];
+        int segment = 0;
+        for (int i = 0; i < tableSize; i++) {
+            double windSpeed = Math.min(i * TABLE_STEP, windSpeeds[windSpeeds.length - 1]);
+            while (segment < windSpeeds.length - 2 && windSpeed > windSpeeds[segment + 1]) {
+                segment++;
+            }
+            double weight = (windSpeed - windSpeeds[segment]) / (windSpeeds[segment + 1] - windSpeeds[segment]);
+            weight = Math.max(0.0, Math.min(1.0, weight));
+            table[i] = powers[segment] + weight * (powers[segment + 1] - powers[segment]);
+        }
+    }
+
+    /**
+     * Reads a power curve file. Each line holds a wind speed in m/s and the turbine output, separated by a comma,
+     * semicolon, tab or spaces. Empty lines, comment lines starting with <code>#</code> and a header line are
+     * skipped.
+     *
+     * @param file The power curve file.
+     * @return The power curve.
+     * @throws IOException If the file cannot be read or is not a valid power curve.
+     */
+    public static PowerCurve read(File file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * Reads a power curve in the format of {@link #read(File)}.
+     *
+     * @param reader The reader of the power curve.
+     * @return The power curve.
+     * @throws IOException If the power curve cannot be read or is not valid.
+     */
+    public static PowerCurve read(Reader reader) throws IOException {
+        List<double[]> points = new ArrayList<>();
+        BufferedReader lineReader = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lineReader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("[,;\\s]+");
+            try {
+                if (columns.length < 2) {
+                    throw new NumberFormatException();
+                }
+                points.add(new double[]{Double.parseDouble(columns[0]), Double.parseDouble(columns[1])});
+            } catch (NumberFormatException e) {
+                if (!points.isEmpty()) {
+                    throw new IOException("Invalid power curve point in line " + lineNumber + ": " + line);
+                }
+                // header line
+            }
+        }
+        double[] windSpeeds = new double[points.size()];
+        double[] powers = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            windSpeeds[i] = points.get(i)[0];
+            powers[i] = points.get(i)[1];
+        }
+        try {
+            return new PowerCurve(windSpeeds, powers);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the turbine output for the given hub height wind speed.
+     *
+     * @param windSpeed The wind speed in m/s.
+     * @return The turbine output, 0 below cut-in and above cut-out wind speed.
+     */
+    public double getPower(double windSpeed) {
+        if (!(windSpeed >= windSpeeds[0] && windSpeed <= windSpeeds[windSpeeds.length - 1])) {
+            return 0.0;
+        }
+        double position = windSpeed / TABLE_STEP;
+        int index = (int) position;
+        double weight = position - index;
+        return table[index] + weight * (table[index + 1] - table[index]);
+    }
+
+    /**
+     * Returns a description of the curve points, used to identify checkpointed or cached results.
+     */
+    public String describe() {
+        return Arrays.toString(windSpeeds) + Arrays.toString(powers);
+    }
+}
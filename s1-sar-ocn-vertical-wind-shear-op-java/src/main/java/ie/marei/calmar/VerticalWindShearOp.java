@@ -1,16 +1,23 @@
 package ie.marei.calmar;
 
-import com.bc.ceres.glevel.MultiLevelImage;
+import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.core.datamodel.*;
+import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.gpf.annotations.TargetProduct;
-import org.esa.snap.core.gpf.pointop.*;
+import org.esa.snap.core.util.ProductUtils;
 
-import java.awt.image.Raster;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The <code>OCN-Vertical-Wind-Shear</code> recalculates wind speed on Sentinel-1 Level-2 OCN products for a given height above sea level.
@@ -25,7 +32,7 @@ import java.awt.image.Raster;
                       "Sentinel-1 Level-2 OCN products for a given height above sea level.",
         authors = "Declan Dunne, Louis de Montera",
         copyright = "Copyright (C) 2021 MaREI")
-public class VerticalWindShearOp extends PixelOperator {
+public class VerticalWindShearOp extends Operator {
 
     @SourceProduct(alias = "Name", description = "The source product")
     private Product sourceProduct;
@@ -39,124 +46,125 @@ public class VerticalWindShearOp extends PixelOperator {
     @Parameter(defaultValue = "0.1", description = "Shear exponent")
     private double shearExponent;
 
-    private OwiParameters owiParameters = null;
+    @Parameter(defaultValue = "false", description = "Add a band with the wind power density at the given height")
+    private boolean computePowerDensity;
 
-    /**
-     * Configures all source samples that this operator requires for the computation of target samples.
-     * Source sample are defined by using the provided {@link SourceSampleConfigurer}.
-     * <p/>
-     * <p/> The method is called by {@link #initialize()}.
-     *
-     * @param sampleConfigurer The configurer that defines the layout of a pixel.
-     * @throws OperatorException If the source samples cannot be configured.
-     */
-    @Override
-    protected void configureSourceSamples(SourceSampleConfigurer sampleConfigurer) throws OperatorException {
-        OwiParameters owiParametersInst = getOwiParameters();
-        sampleConfigurer.defineSample(0, owiParametersInst.getOwiWindSpeedName());
-        sampleConfigurer.defineSample(1, owiParametersInst.getOwiLatName());
-        sampleConfigurer.defineSample(2, owiParametersInst.getOwiLonName());
-    }
+    @Parameter(defaultValue = "1.225", unit = "kg/m^3", description = "Air density used for the wind power density")
+    private double airDensity;
 
-    /**
-     * Configures all target samples computed by this operator.
-     * Target samples are defined by using the provided {@link TargetSampleConfigurer}.
-     * <p/>
-     * <p/> The method is called by {@link #initialize()}.
-     *
-     * @param sampleConfigurer The configurer that defines the layout of a pixel.
-     * @throws OperatorException If the target samples cannot be configured.
-     */
-    @Override
-    protected void configureTargetSamples(TargetSampleConfigurer sampleConfigurer) throws OperatorException {
-        OwiParameters owiParametersInst = getOwiParameters();
-        String windParameterName = owiParametersInst.getOwiWindSpeedName();
-        sampleConfigurer.defineSample(0, windParameterName);
-    }
+    @Parameter(description = "Wind turbine power curve file. If set, a band with the turbine output at the given " +
+            "height is added. Each line holds a wind speed in m/s and the turbine output in kW")
+    private File powerCurveFile;
+
+    @Parameter(description = "Directory of the tile checkpoint journal. If set, completed tiles are recorded " +
+            "and a restarted run on the same input only computes the missing tiles")
+    private File checkpointDir;
+
+    @Parameter(description = "Directory of the result cache. If set, results are cached by source product identity " +
+            "and operator parameters, and a matching request is answered with the cached product")
+    private File cacheDir;
+
+    @Parameter(defaultValue = "10240", unit = "MB", description = "Maximum size of the result cache")
+    private long cacheMaxSize;
+
+    private OwiParameters owiParameters = null;
+    private ResultStore resultStore = null;
+
+    private Band windBand;
+    private Band powerDensityBand;
+    private Band turbinePowerBand;
+    private PowerCurve powerCurve;
 
     /**
-     * Configures the target product via the given {@link ProductConfigurer}. Called by {@link #initialize()}.
+     * Initializes this operator and sets the one and only target product.
      * <p/>
-     * Client implementations of this method usually add product components to the given target product, such as
-     * {@link Band bands} to be computed by this operator,
-     * {@link VirtualBand virtual bands},
-     * {@link Mask masks}
-     * or {@link SampleCoding sample codings}.
+     * The target product contains the wind speed adjusted to the given height above sea level, optionally the wind
+     * power density and the turbine output at that height, and lat and lon bands with a geocoding created from the
+     * owiLat and owiLon bands of the source product. The lat and lon grids are held off-heap.
      * <p/>
-     * The default implementation retrieves the (first) source product and copies to the target product
-     * <ul>
-     * <li>the start and stop time by calling {@link ProductConfigurer#copyTimeCoding()},</li>
-     * <li>all tie-point grids by calling {@link ProductConfigurer#copyTiePointGrids(String...)},</li>
-     * <li>the geo-coding by calling {@link ProductConfigurer#copyGeoCoding()}.</li>
-     * </ul>
+     * If the result cache holds the target product for the source product and the shear parameters, the cached
+     * product is the target product, and the source data are not read.
      * <p/>
-     * Clients that require a similar behaviour in their operator shall first call the {@code super} method
-     * in their implementation.
+     * The method is called by the framework before any tiles are computed.
      *
-     * @param productConfigurer The target product configurer.
-     * @throws OperatorException If the target product cannot be configured.
-     * @see Product#addBand(Band)
-     * @see Product#addBand(String, String)
-     * @see Product#addTiePointGrid(TiePointGrid)
-     * @see Product#getMaskGroup()
+     * @throws OperatorException If an error occurs during operator initialisation.
      */
     @Override
-    protected void configureTargetProduct(ProductConfigurer productConfigurer) {
-        /*
-        // metadata options
-        super.configureTargetProduct(productConfigurer);
-        productConfigurer.copyTimeCoding();
-        productConfigurer.copyTiePointGrids();
-        productConfigurer.copyGeoCoding();
-        */
-        productConfigurer.copyMetadata();
-        Product tp = productConfigurer.getTargetProduct();
+    public void initialize() throws OperatorException {
+        // 1) open the tile checkpoint journal or result cache entry, keyed by the input and the shear parameters
+        if (powerCurveFile != null) {
+            try {
+                powerCurve = PowerCurve.read(powerCurveFile);
+            } catch (IOException e) {
+                throw new OperatorException("Cannot read power curve file " + powerCurveFile + ": " + e.getMessage(), e);
+            }
+        }
+        openTileJournal();
+        Product cachedProduct = resultStore != null ? resultStore.getCachedProduct("lat", "lon") : null;
+        if (cachedProduct != null) {
+            this.targetProduct = cachedProduct;
+            return;
+        }
+
+        OwiParameters owiParametersInst = getOwiParameters();
+        double no_data = owiParametersInst.getNoData();
+        Band wind = owiParametersInst.getWindBand();
+        int width = wind.getRasterWidth();
+        int height = wind.getRasterHeight();
+
+        Product tp = new Product(getId(), getClass().getName(), width, height);
+        ProductUtils.copyMetadata(sourceProduct, tp);
 
         /*
         // reproject option
-        Product tp = productConfigurer.getTargetProduct();
         Map<String, Object> reprojParams = new HashMap<String, Object>();
         reprojParams.put("crs", "EPSG:4326");
         //reprojParams.put("noDataValue", 0d);
         tp = GPF.createProduct("Reproject", reprojParams, tp);
         */
 
-        OwiParameters owiParametersInst = getOwiParameters();
-        double no_data = owiParametersInst.getNoData();
-        Band wind = owiParametersInst.getWindBand();
-        int width = wind.getRasterWidth();
-        int height = wind.getRasterHeight();
-
         // add new bands to the target product
-        // 1) add .._001_owiWindSpeed band
+        // 2) add .._001_owiWindSpeed band
         String windParameterName = owiParametersInst.getOwiWindSpeedName();
-        final Band windBand = tp.addBand(windParameterName, ProductData.TYPE_FLOAT32);
+        windBand = tp.addBand(windParameterName, ProductData.TYPE_FLOAT32);
         windBand.setNoDataValue(no_data);
         windBand.setNoDataValueUsed(true);
         windBand.setUnit("m/s");
         windBand.setDescription("Wind speed adjusted to " + windHeight + " metres height above sea level");
 
-        // 2) get .._001_owiLat data
+        // optionally add windPowerDensity and turbinePower bands
+        if (computePowerDensity) {
+            powerDensityBand = tp.addBand("windPowerDensity", ProductData.TYPE_FLOAT32);
+            powerDensityBand.setNoDataValue(-999.0);
+            powerDensityBand.setNoDataValueUsed(true);
+            powerDensityBand.setUnit("W/m^2");
+            powerDensityBand.setDescription("Wind power density at " + windHeight + " metres height above sea " +
+                    "level for an air density of " + airDensity + " kg/m^3");
+        }
+        if (powerCurve != null) {
+            turbinePowerBand = tp.addBand("turbinePower", ProductData.TYPE_FLOAT32);
+            turbinePowerBand.setNoDataValue(-999.0);
+            turbinePowerBand.setNoDataValueUsed(true);
+            turbinePowerBand.setUnit("kW");
+            turbinePowerBand.setDescription("Turbine output at " + windHeight + " metres height above sea level " +
+                    "from power curve " + powerCurveFile.getName());
+        }
+
+        // 3) get .._001_owiLat data, held off-heap
         RasterDataNode owiLat = sourceProduct.getRasterDataNode(owiParametersInst.getOwiLatName());
         if (owiLat == null) {
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: missing " +
                     owiParametersInst.getOwiLatName() + " band");
         }
-        MultiLevelImage owiLatImage = owiLat.getGeophysicalImage();
-        Raster latImageData = owiLatImage.getData();
-        float[] latData = new float[latImageData.getWidth() * latImageData.getHeight()];
-        latData = latImageData.getPixels(0, 0, latImageData.getWidth(), latImageData.getHeight(), latData);
+        FloatBuffer latData = OffHeapLatLonGeoCoding.readOffHeap(owiLat);
 
-        // 3) get .._001_owiLon data
+        // 4) get .._001_owiLon data, held off-heap
         RasterDataNode owiLon = sourceProduct.getRasterDataNode(owiParametersInst.getOwiLonName());
         if (owiLon == null) {
             throw new OperatorException("Requires a Sentinel-1 Level-2 OCN source product: missing " +
                     owiParametersInst.getOwiLonName() + " band");
         }
-        MultiLevelImage owiLonImage = owiLon.getGeophysicalImage();
-        Raster lonImageData = owiLonImage.getData();
-        float[] lonData = new float[lonImageData.getWidth() * lonImageData.getHeight()];
-        lonData = lonImageData.getPixels(0, 0, lonImageData.getWidth(), lonImageData.getHeight(), lonData);
+        FloatBuffer lonData = OffHeapLatLonGeoCoding.readOffHeap(owiLon);
 
         /*
         //PixelGeoCoding
@@ -172,57 +180,132 @@ public class VerticalWindShearOp extends PixelOperator {
         tp.setSceneGeoCoding(pixelGeoCoding);
         */
 
-        // Add lat/lon coordinates. Create a TiePointGrid using the lat/lon data from 2) and 3)
-        TiePointGrid latGrid = new TiePointGrid("lat", width, height, 0.0, 0.0, 1.0, 1.0, latData);
-        TiePointGrid lonGrid = new TiePointGrid("lon", width, height, 0.0, 0.0, 1.0, 1.0, lonData);
-        tp.addTiePointGrid(latGrid);
-        tp.addTiePointGrid(lonGrid);
-        TiePointGeoCoding tiePointGeoCoding = new TiePointGeoCoding(latGrid, lonGrid);
-        tp.setSceneGeoCoding(tiePointGeoCoding);
+        // Add lat/lon coordinates. Create lat/lon bands and an OffHeapLatLonGeoCoding sharing the off-heap data
+        // from 3) and 4)
+        OffHeapLatLonGeoCoding.addLatLonBand(tp, "lat", latData, "degrees_north");
+        OffHeapLatLonGeoCoding.addLatLonBand(tp, "lon", lonData, "degrees_east");
+        tp.setSceneGeoCoding(new OffHeapLatLonGeoCoding(latData, lonData, width, height));
+
+        this.targetProduct = tp;
     }
 
     /**
-     * Computes the target samples from the given source samples.
+     * Computes the target tiles of all bands for the given target rectangle.
      * <p/>
-     * The number of source/target samples is the maximum defined sample index plus one. Source/target samples are
-     * defined by using the respective sample configurer in the
-     * {@link #configureSourceSamples(SourceSampleConfigurer) configureSourceSamples} and
-     * {@link #configureTargetSamples(TargetSampleConfigurer) configureTargetSamples} methods.
-     * Attempts to read from source samples or write to target samples at undefined sample indices will
-     * cause undefined behaviour.
+     * The wind speed is adjusted by {@link WindKernels#extrapolateWindSpeed}. The wind power density and turbine
+     * output, if requested, are computed from the adjusted wind speed in the same pass. The turbine output is looked
+     * up in the precomputed table of the power curve.
+     * <p/>
+     * If a checkpoint journal or result cache is used, tiles recorded by a previous run are restored without
+     * reading the source product, and newly computed tiles are recorded.
      *
-     * @param x             The current pixel's X coordinate.
-     * @param y             The current pixel's Y coordinate.
-     * @param sourceSamples The source samples (= source pixel).
-     * @param targetSamples The target samples (= target pixel).
+     * @param targetTiles     The current tiles to be computed for each target band.
+     * @param targetRectangle The area in pixel coordinates to be computed (same for all rasters in <code>targetRasters</code>).
+     * @param pm              A progress monitor which should be used to determine computation cancellation requests.
+     * @throws OperatorException If an error occurs during computation of the target rasters.
      */
     @Override
-    protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
+        if (resultStore != null && resultStore.restoreTile(targetTiles, targetRectangle)) {
+            return;
+        }
+
         OwiParameters owiParametersInst = getOwiParameters();
         double no_data = owiParametersInst.getNoData();
 
-        double windPixel = sourceSamples[0].getDouble();
-        if (no_data != 0.0 && windPixel == no_data) {
-            targetSamples[0].set(no_data);
-        } else {
+        Tile windTile = getSourceTile(owiParametersInst.getWindBand(), targetRectangle);
+        Tile windTarget = targetTiles.get(windBand);
+        Tile powerDensityTarget = powerDensityBand != null ? targetTiles.get(powerDensityBand) : null;
+        Tile turbinePowerTarget = turbinePowerBand != null ? targetTiles.get(turbinePowerBand) : null;
+        final double halfAirDensity = 0.5 * airDensity;
+
+        pm.beginTask("Calculating vertical wind shear", targetRectangle.height + 1);
+        try {
             // Recalculate wind speed profile at new height.
-            final double shearCoeff = Math.pow(((windHeight / 10)), shearExponent);
-            final double newWindPixel = windPixel * shearCoeff;
-            targetSamples[0].set(newWindPixel);
-            try {
-            } catch (Exception exception) {
-                throw new OperatorException(exception.getMessage());
+            int width = targetRectangle.width;
+            float[] windSamples = windTile.getSamplesFloat();
+            float[] hubWindSamples = new float[windSamples.length];
+            WindKernels.extrapolateWindSpeed(windSamples, 0, width, hubWindSamples, 0, width,
+                    width, targetRectangle.height, (float) no_data, windHeight, shearExponent);
+            windTarget.setSamples(hubWindSamples);
+            pm.worked(1);
+
+            if (powerDensityTarget != null || turbinePowerTarget != null) {
+                float[] powerDensitySamples = powerDensityTarget != null ? new float[hubWindSamples.length] : null;
+                float[] turbinePowerSamples = turbinePowerTarget != null ? new float[hubWindSamples.length] : null;
+                for (int i = 0; i < hubWindSamples.length; i++) {
+                    double hubWindPixel = hubWindSamples[i];
+                    boolean noData = no_data != 0.0 && WindKernels.isNoData(windSamples[i], (float) no_data);
+                    if (powerDensitySamples != null) {
+                        powerDensitySamples[i] = noData ? -999.0f :
+                                (float) (halfAirDensity * hubWindPixel * hubWindPixel * hubWindPixel);
+                    }
+                    if (turbinePowerSamples != null) {
+                        turbinePowerSamples[i] = noData ? -999.0f : (float) powerCurve.getPower(hubWindPixel);
+                    }
+                    if ((i + 1) % width == 0) {
+                        checkForCancellation();
+                        pm.worked(1);
+                    }
+                }
+                if (powerDensityTarget != null) {
+                    powerDensityTarget.setSamples(powerDensitySamples);
+                }
+                if (turbinePowerTarget != null) {
+                    turbinePowerTarget.setSamples(turbinePowerSamples);
+                }
             }
+        } finally {
+            pm.done();
         }
+
+        if (resultStore != null) {
+            resultStore.recordTile(targetTiles, targetRectangle);
+        }
+    }
+
+    /**
+     * Releases the resources of this operator. If a result cache is used and all target tiles have been computed,
+     * the target product is stored in the cache entry. The lock of the cache entry is released, and least recently
+     * used result cache entries are evicted if the cache has grown beyond its maximum size.
+     */
+    @Override
+    public void dispose() {
+        if (resultStore != null) {
+            resultStore.close(targetProduct);
+        }
+        super.dispose();
+    }
+
+    /**
+     * Opens the tile journal, either the checkpoint journal or the result cache entry for the source product and
+     * shear parameters. Tiles found in the journal are restored instead of being computed, and a result cache entry may
+     * hold the complete target product.
+     */
+    private void openTileJournal() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("windHeight", windHeight);
+        parameters.put("shearExponent", shearExponent);
+        parameters.put("power", describePowerParameters());
+        resultStore = ResultStore.open(getClass(), parameters, sourceProduct, checkpointDir, cacheDir, cacheMaxSize);
+    }
+
+    /**
+     * Describes the power density and power curve parameters, so results of a different air density or curve are
+     * not restored from a checkpoint journal or the result cache.
+     */
+    private String describePowerParameters() {
+        return (computePowerDensity ? "powerDensity=" + airDensity : "") +
+                (powerCurve != null ? "powerCurve=" + powerCurve.describe() : "");
     }
 
     /**
      * Initialises owiParameters.
      * <p/>
-     * We use this method because other code invokes overridden functions such as configureSourceSamples,
-     * configureTargetSamples and configureTargetProduct. We cannot assume one of these function is always called first
-     * to initialise owiParameters. Also, a constructor method to initialise owiParameters will not work because
-     * this.sourceProduct is not yet assigned a value at that constructor phase.
+     * We use this method because other code invokes overridden functions such as initialize and computeTileStack.
+     * We cannot assume one of these function is always called first to initialise owiParameters. Also, a
+     * constructor method to initialise owiParameters will not work because this.sourceProduct is not yet assigned
+     * a value at that constructor phase.
      * <p/>
      * We use this function to guarantee that this.owiParameters is assigned a value once.
      */
@@ -0,0 +1,50 @@
+package ie.marei.calmar;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class PowerCurveTest {
+
+    private static final String CURVE = "# test turbine\n" +
+            "wind speed (m/s), power (kW)\n" +
+            "3.0, 0.0\n" +
+            "4.0, 100.0\n" +
+            "8.0\t2100.0\n" +
+            "12.5  5000\n" +
+            "25.0; 5000\n";
+
+    @Test
+    public void testGetPower() throws Exception {
+        PowerCurve powerCurve = PowerCurve.read(new StringReader(CURVE));
+
+        assertEquals(0.0, powerCurve.getPower(3.0), 1.0e-6);
+        assertEquals(50.0, powerCurve.getPower(3.5), 1.0e-6);
+        assertEquals(100.0, powerCurve.getPower(4.0), 1.0e-6);
+        assertEquals(1100.0, powerCurve.getPower(6.0), 1.0e-6);
+        assertEquals(2100.0 + 2900.0 * 1.234 / 4.5, powerCurve.getPower(9.234), 1.0e-2);
+        assertEquals(5000.0, powerCurve.getPower(25.0), 1.0e-6);
+    }
+
+    @Test
+    public void testGetPower_outsideCurve() throws Exception {
+        PowerCurve powerCurve = PowerCurve.read(new StringReader(CURVE));
+
+        assertEquals(0.0, powerCurve.getPower(2.9), 0.0);
+        assertEquals(0.0, powerCurve.getPower(25.1), 0.0);
+        assertEquals(0.0, powerCurve.getPower(Double.NaN), 0.0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_notIncreasing() throws Exception {
+        PowerCurve.read(new StringReader("3.0, 0.0\n5.0, 300.0\n4.0, 200.0\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRead_invalidPoint() throws Exception {
+        PowerCurve.read(new StringReader("3.0, 0.0\n5.0, n/a\n"));
+    }
+}
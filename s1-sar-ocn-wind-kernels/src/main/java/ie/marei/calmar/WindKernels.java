@@ -0,0 +1,327 @@
+package ie.marei.calmar;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The <code>WindKernels</code> are the per-pixel and block computations of the OCN operators on plain float grids,
+ * without SNAP products or tiles. They can be called directly on wind grids held by other applications, and are
+ * used by the OCN-Vertical-Wind-Shear and OCN-Restructure-Geocoding operators.
+ * <p/>
+ * A grid is a rectangle of <code>width * height</code> values in an array or buffer. The value of pixel (x, y) is at
+ * index <code>offset + y * stride + x</code>, so a grid can be a part of a larger raster. Buffer indexes are
+ * absolute, independent of the buffer position. The target grid may be the same as a source grid, for computing in
+ * place.
+ */
+public final class WindKernels {
+
+    private WindKernels() {
+    }
+
+    /**
+     * Returns the factor of the power law wind profile which adjusts a 10 metre wind speed to the given height.
+     *
+     * @param windHeight    The height above sea level in metres.
+     * @param shearExponent The shear exponent, e.g. 0.1 for neutral air above open water.
+     * @return The wind speed factor.
+     */
+    public static double getShearCoefficient(double windHeight, double shearExponent) {
+        return Math.pow(windHeight / 10, shearExponent);
+    }
+
+    /**
+     * Adjusts 10 metre wind speeds to the given height above sea level. No data pixels stay no data.
+     *
+     * @param windSpeed       The 10 metre wind speeds in m/s.
+     * @param windSpeedOffset The index of the first wind speed.
+     * @param windSpeedStride The index distance of consecutive wind speed rows.
+     * @param target          The adjusted wind speeds in m/s.
+     * @param targetOffset    The index of the first adjusted wind speed.
+     * @param targetStride    The index distance of consecutive adjusted wind speed rows.
+     * @param width           The grid width.
+     * @param height          The grid height.
+     * @param noData          The no data value of the wind speeds, may be NaN.
+     * @param windHeight      The height above sea level in metres.
+     * @param shearExponent   The shear exponent.
+     */
+    public static void extrapolateWindSpeed(float[] windSpeed, int windSpeedOffset, int windSpeedStride,
+                                            float[] target, int targetOffset, int targetStride,
+                                            int width, int height, float noData,
+                                            double windHeight, double shearExponent) {
+        checkGrid("windSpeed", windSpeed.length, windSpeedOffset, windSpeedStride, width, height);
+        checkGrid("target", target.length, targetOffset, targetStride, width, height);
+        double shearCoeff = getShearCoefficient(windHeight, shearExponent);
+        for (int y = 0; y < height; y++) {
+            int windSpeedIndex = windSpeedOffset + y * windSpeedStride;
+            int targetIndex = targetOffset + y * targetStride;
+            for (int x = 0; x < width; x++) {
+                float windPixel = windSpeed[windSpeedIndex + x];
+                target[targetIndex + x] = isNoData(windPixel, noData) ? noData : (float) (windPixel * shearCoeff);
+            }
+        }
+    }
+
+    /**
+     * Adjusts 10 metre wind speeds to the given height above sea level. No data pixels stay no data.
+     *
+     * @see #extrapolateWindSpeed(float[], int, int, float[], int, int, int, int, float, double, double)
+     */
+    public static void extrapolateWindSpeed(FloatBuffer windSpeed, int windSpeedOffset, int windSpeedStride,
+                                            FloatBuffer target, int targetOffset, int targetStride,
+                                            int width, int height, float noData,
+                                            double windHeight, double shearExponent) {
+        checkGrid("windSpeed", windSpeed.limit(), windSpeedOffset, windSpeedStride, width, height);
+        checkGrid("target", target.limit(), targetOffset, targetStride, width, height);
+        double shearCoeff = getShearCoefficient(windHeight, shearExponent);
+        for (int y = 0; y < height; y++) {
+            int windSpeedIndex = windSpeedOffset + y * windSpeedStride;
+            int targetIndex = targetOffset + y * targetStride;
+            for (int x = 0; x < width; x++) {
+                float windPixel = windSpeed.get(windSpeedIndex + x);
+                target.put(targetIndex + x, isNoData(windPixel, noData) ? noData : (float) (windPixel * shearCoeff));
+            }
+        }
+    }
+
+    /**
+     * Sets land pixels, where the land flag is 1, and no data pixels to the given fill value and copies all other
+     * pixels.
+     *
+     * @param landFlag       The land flags, e.g. owiLandFlag or owiMask.
+     * @param landFlagOffset The index of the first land flag.
+     * @param landFlagStride The index distance of consecutive land flag rows.
+     * @param source         The source values, e.g. owiWindSpeed.
+     * @param sourceOffset   The index of the first source value.
+     * @param sourceStride   The index distance of consecutive source rows.
+     * @param target         The masked values.
+     * @param targetOffset   The index of the first masked value.
+     * @param targetStride   The index distance of consecutive masked rows.
+     * @param width          The grid width.
+     * @param height         The grid height.
+     * @param noData         The no data value of the source values, may be NaN.
+     * @param fillValue      The value of land and no data pixels.
+     */
+    public static void maskLand(float[] landFlag, int landFlagOffset, int landFlagStride,
+                                float[] source, int sourceOffset, int sourceStride,
+                                float[] target, int targetOffset, int targetStride,
+                                int width, int height, float noData, float fillValue) {
+        checkGrid("landFlag", landFlag.length, landFlagOffset, landFlagStride, width, height);
+        checkGrid("source", source.length, sourceOffset, sourceStride, width, height);
+        checkGrid("target", target.length, targetOffset, targetStride, width, height);
+        for (int y = 0; y < height; y++) {
+            int landFlagIndex = landFlagOffset + y * landFlagStride;
+            int sourceIndex = sourceOffset + y * sourceStride;
+            int targetIndex = targetOffset + y * targetStride;
+            for (int x = 0; x < width; x++) {
+                float sourcePixel = source[sourceIndex + x];
+                boolean land = landFlag[landFlagIndex + x] == 1.0f;
+                target[targetIndex + x] = land || isNoData(sourcePixel, noData) ? fillValue : sourcePixel;
+            }
+        }
+    }
+
+    /**
+     * Sets land pixels, where the land flag is 1, and no data pixels to the given fill value and copies all other
+     * pixels.
+     *
+     * @see #maskLand(float[], int, int, float[], int, int, float[], int, int, int, int, float, float)
+     */
+    public static void maskLand(FloatBuffer landFlag, int landFlagOffset, int landFlagStride,
+                                FloatBuffer source, int sourceOffset, int sourceStride,
+                                FloatBuffer target, int targetOffset, int targetStride,
+                                int width, int height, float noData, float fillValue) {
+        checkGrid("landFlag", landFlag.limit(), landFlagOffset, landFlagStride, width, height);
+        checkGrid("source", source.limit(), sourceOffset, sourceStride, width, height);
+        checkGrid("target", target.limit(), targetOffset, targetStride, width, height);
+        for (int y = 0; y < height; y++) {
+            int landFlagIndex = landFlagOffset + y * landFlagStride;
+            int sourceIndex = sourceOffset + y * sourceStride;
+            int targetIndex = targetOffset + y * targetStride;
+            for (int x = 0; x < width; x++) {
+                float sourcePixel = source.get(sourceIndex + x);
+                boolean land = landFlag.get(landFlagIndex + x) == 1.0f;
+                target.put(targetIndex + x, land || isNoData(sourcePixel, noData) ? fillValue : sourcePixel);
+            }
+        }
+    }
+
+    /**
+     * Returns the weight of an owi cell in a block average for its owiWindQuality flag. Good (0), medium (1) and low
+     * (2) quality cells have weights 1, 2/3 and 1/3. Poor quality (3) cells and cells without a valid flag have
+     * weight 0 and are excluded.
+     *
+     * @param windQuality The owiWindQuality flag.
+     * @return The weight.
+     */
+    public static float getQualityWeight(float windQuality) {
+        if (!(windQuality >= 0.0f && windQuality <= 3.0f)) {
+            return 0.0f;
+        }
+        return (3.0f - windQuality) / 3.0f;
+    }
+
+    /**
+     * Averages a grid over blocks of <code>factor * factor</code> pixels. The target grid has
+     * <code>ceil(width / factor) * ceil(height / factor)</code> pixels, blocks at the right and bottom edges may be
+     * smaller. No data pixels and pixels with a weight of 0 or less are excluded, and blocks without any remaining
+     * pixel are set to the target no data value.
+     * <p/>
+     * For directions in degrees a circular mean is used, the direction of the weighted sum of the unit vectors,
+     * in the range [0, 360).
+     *
+     * @param source       The source values.
+     * @param sourceOffset The index of the first source value.
+     * @param sourceStride The index distance of consecutive source rows.
+     * @param weight       The weights of the source values, e.g. from {@link #getQualityWeight}, or null for equal
+     *                     weights.
+     * @param weightOffset The index of the first weight.
+     * @param weightStride The index distance of consecutive weight rows.
+     * @param target       The block averages.
+     * @param targetOffset The index of the first block average.
+     * @param targetStride The index distance of consecutive block average rows.
+     * @param width        The source grid width.
+     * @param height       The source grid height.
+     * @param factor       The block size.
+     * @param sourceNoData The no data value of the source values, may be NaN.
+     * @param targetNoData The value of blocks without valid pixels.
+     * @param circular     True for a circular mean of directions in degrees.
+     */
+    public static void aggregateMean(float[] source, int sourceOffset, int sourceStride,
+                                     float[] weight, int weightOffset, int weightStride,
+                                     float[] target, int targetOffset, int targetStride,
+                                     int width, int height, int factor,
+                                     float sourceNoData, float targetNoData, boolean circular) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("Invalid aggregation factor " + factor);
+        }
+        int targetWidth = (width + factor - 1) / factor;
+        int targetHeight = (height + factor - 1) / factor;
+        checkGrid("source", source.length, sourceOffset, sourceStride, width, height);
+        if (weight != null) {
+            checkGrid("weight", weight.length, weightOffset, weightStride, width, height);
+        }
+        checkGrid("target", target.length, targetOffset, targetStride, targetWidth, targetHeight);
+        for (int j = 0; j < targetHeight; j++) {
+            for (int i = 0; i < targetWidth; i++) {
+                double weightSum = 0.0;
+                double sum = 0.0;
+                double sinSum = 0.0;
+                double cosSum = 0.0;
+                int maxY = Math.min(height, (j + 1) * factor);
+                int maxX = Math.min(width, (i + 1) * factor);
+                for (int y = j * factor; y < maxY; y++) {
+                    for (int x = i * factor; x < maxX; x++) {
+                        float value = source[sourceOffset + y * sourceStride + x];
+                        float w = weight != null ? weight[weightOffset + y * weightStride + x] : 1.0f;
+                        if (!(w > 0.0f) || isNoData(value, sourceNoData) || Float.isNaN(value)) {
+                            continue;
+                        }
+                        weightSum += w;
+                        if (circular) {
+                            double angle = Math.toRadians(value);
+                            sinSum += w * Math.sin(angle);
+                            cosSum += w * Math.cos(angle);
+                        } else {
+                            sum += w * value;
+                        }
+                    }
+                }
+                float mean;
+                if (weightSum == 0.0) {
+                    mean = targetNoData;
+                } else if (circular) {
+                    double direction = Math.toDegrees(Math.atan2(sinSum, cosSum));
+                    mean = (float) (direction < 0.0 ? direction + 360.0 : direction);
+                    if (mean >= 360.0f) {
+                        mean = 0.0f;
+                    }
+                } else {
+                    mean = (float) (sum / weightSum);
+                }
+                target[targetOffset + j * targetStride + i] = mean;
+            }
+        }
+    }
+
+    /**
+     * Averages a grid over blocks of <code>factor * factor</code> pixels.
+     *
+     * @see #aggregateMean(float[], int, int, float[], int, int, float[], int, int, int, int, int, float, float, boolean)
+     */
+    public static void aggregateMean(FloatBuffer source, int sourceOffset, int sourceStride,
+                                     FloatBuffer weight, int weightOffset, int weightStride,
+                                     FloatBuffer target, int targetOffset, int targetStride,
+                                     int width, int height, int factor,
+                                     float sourceNoData, float targetNoData, boolean circular) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("Invalid aggregation factor " + factor);
+        }
+        int targetWidth = (width + factor - 1) / factor;
+        int targetHeight = (height + factor - 1) / factor;
+        checkGrid("source", source.limit(), sourceOffset, sourceStride, width, height);
+        if (weight != null) {
+            checkGrid("weight", weight.limit(), weightOffset, weightStride, width, height);
+        }
+        checkGrid("target", target.limit(), targetOffset, targetStride, targetWidth, targetHeight);
+        for (int j = 0; j < targetHeight; j++) {
+            for (int i = 0; i < targetWidth; i++) {
+                double weightSum = 0.0;
+                double sum = 0.0;
+                double sinSum = 0.0;
+                double cosSum = 0.0;
+                int maxY = Math.min(height, (j + 1) * factor);
+                int maxX = Math.min(width, (i + 1) * factor);
+                for (int y = j * factor; y < maxY; y++) {
+                    for (int x = i * factor; x < maxX; x++) {
+                        float value = source.get(sourceOffset + y * sourceStride + x);
+                        float w = weight != null ? weight.get(weightOffset + y * weightStride + x) : 1.0f;
+                        if (!(w > 0.0f) || isNoData(value, sourceNoData) || Float.isNaN(value)) {
+                            continue;
+                        }
+                        weightSum += w;
+                        if (circular) {
+                            double angle = Math.toRadians(value);
+                            sinSum += w * Math.sin(angle);
+                            cosSum += w * Math.cos(angle);
+                        } else {
+                            sum += w * value;
+                        }
+                    }
+                }
+                float mean;
+                if (weightSum == 0.0) {
+                    mean = targetNoData;
+                } else if (circular) {
+                    double direction = Math.toDegrees(Math.atan2(sinSum, cosSum));
+                    mean = (float) (direction < 0.0 ? direction + 360.0 : direction);
+                    if (mean >= 360.0f) {
+                        mean = 0.0f;
+                    }
+                } else {
+                    mean = (float) (sum / weightSum);
+                }
+                target.put(targetOffset + j * targetStride + i, mean);
+            }
+        }
+    }
+
+    /**
+     * Tests whether a value is the no data value. A no data value of NaN matches every NaN value.
+     *
+     * @param value  The value.
+     * @param noData The no data value.
+     * @return <code>true</code> if the value is no data.
+     */
+    public static boolean isNoData(float value, float noData) {
+        return Float.isNaN(noData) ? Float.isNaN(value) : value == noData;
+    }
+
+    private static void checkGrid(String name, int length, int offset, int stride, int width, int height) {
+        if (width < 0 || height < 0 || offset < 0 || stride < width) {
+            throw new IllegalArgumentException("Invalid " + name + " grid: offset " + offset + ", stride " + stride +
+                    ", size " + width + " x " + height);
+        }
+        if (width > 0 && height > 0 && (long) offset + (long) (height - 1) * stride + width > length) {
+            throw new IllegalArgumentException("The " + name + " grid exceeds its array or buffer of length " + length);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ie.marei.calmar;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class WindKernelsTest {
+
+    @Test
+    public void testExtrapolateWindSpeed() {
+        // 2 x 2 grid in a 3 x 2 array, starting at index 1
+        float[] windSpeed = {0.0f, 5.0f, -999.0f, 0.0f, 10.0f, 0.0f};
+        float[] target = new float[4];
+        WindKernels.extrapolateWindSpeed(windSpeed, 1, 3, target, 0, 2, 2, 2, -999.0f, 100.0, 0.1);
+
+        double shearCoeff = Math.pow(10.0, 0.1);
+        assertEquals(5.0 * shearCoeff, target[0], 1.0e-5);
+        assertEquals(-999.0f, target[1], 0.0f);
+        assertEquals(10.0 * shearCoeff, target[2], 1.0e-5);
+        assertEquals(0.0f, target[3], 0.0f);
+    }
+
+    @Test
+    public void testExtrapolateWindSpeed_bufferNaN() {
+        FloatBuffer windSpeed = FloatBuffer.wrap(new float[]{Float.NaN, 8.0f});
+        WindKernels.extrapolateWindSpeed(windSpeed, 0, 2, windSpeed, 0, 2, 2, 1, Float.NaN, 10.0, 0.1);
+
+        assertTrue(Float.isNaN(windSpeed.get(0)));
+        assertEquals(8.0f, windSpeed.get(1), 1.0e-6f);
+    }
+
+    @Test
+    public void testIsNoData() {
+        assertTrue(WindKernels.isNoData(-999.0f, -999.0f));
+        assertFalse(WindKernels.isNoData(5.0f, -999.0f));
+        assertFalse(WindKernels.isNoData(Float.NaN, -999.0f));
+        assertTrue(WindKernels.isNoData(Float.NaN, Float.NaN));
+        assertFalse(WindKernels.isNoData(5.0f, Float.NaN));
+    }
+
+    @Test
+    public void testMaskLand() {
+        float[] landFlag = {0.0f, 1.0f, 1.0f, 0.0f};
+        float[] windDirection = {90.0f, 180.0f, 270.0f, 360.0f};
+        float[] target = new float[4];
+        WindKernels.maskLand(landFlag, 0, 2, windDirection, 0, 2, target, 0, 2, 2, 2, Float.NaN, -999.0f);
+
+        assertArrayEquals(new float[]{90.0f, -999.0f, -999.0f, 360.0f}, target, 0.0f);
+    }
+
+    @Test
+    public void testMaskLand_buffer() {
+        FloatBuffer landFlag = FloatBuffer.wrap(new float[]{1.0f, 0.0f});
+        FloatBuffer windQuality = FloatBuffer.wrap(new float[]{0.0f, 2.0f});
+        WindKernels.maskLand(landFlag, 0, 2, windQuality, 0, 2, windQuality, 0, 2, 2, 1, -127.0f, 255.0f);
+
+        assertEquals(255.0f, windQuality.get(0), 0.0f);
+        assertEquals(2.0f, windQuality.get(1), 0.0f);
+    }
+
+    @Test
+    public void testMaskLand_noData() {
+        float[] landFlag = {0.0f, 0.0f, 1.0f};
+        float[] windSpeed = {Float.NaN, 7.0f, Float.NaN};
+        float[] target = new float[3];
+        WindKernels.maskLand(landFlag, 0, 3, windSpeed, 0, 3, target, 0, 3, 3, 1, Float.NaN, -999.0f);
+        assertArrayEquals(new float[]{-999.0f, 7.0f, -999.0f}, target, 0.0f);
+
+        FloatBuffer windQuality = FloatBuffer.wrap(new float[]{-127.0f, 1.0f, 0.0f});
+        WindKernels.maskLand(FloatBuffer.wrap(landFlag), 0, 3, windQuality, 0, 3, windQuality, 0, 3, 3, 1,
+                             -127.0f, 255.0f);
+        assertEquals(255.0f, windQuality.get(0), 0.0f);
+        assertEquals(1.0f, windQuality.get(1), 0.0f);
+        assertEquals(255.0f, windQuality.get(2), 0.0f);
+    }
+
+    @Test
+    public void testAggregateMean_weighted() {
+        // 3 x 3 grid, 2 x 2 blocks: one full block, two edge blocks and a corner block
+        float[] windSpeed = {
+                4.0f, 8.0f, 5.0f,
+                6.0f, -999.0f, 7.0f,
+                9.0f, 3.0f, 1.0f
+        };
+        float[] weight = {
+                1.0f, 0.5f, 0.0f,
+                1.0f, 1.0f, 1.0f,
+                1.0f, 1.0f, 1.0f
+        };
+        float[] target = new float[4];
+        WindKernels.aggregateMean(windSpeed, 0, 3, weight, 0, 3, target, 0, 2, 3, 3, 2, -999.0f, -999.0f, false);
+
+        assertEquals((4.0f + 0.5f * 8.0f + 6.0f) / 2.5f, target[0], 1.0e-5f);
+        assertEquals(7.0f, target[1], 1.0e-6f);
+        assertEquals(6.0f, target[2], 1.0e-6f);
+        assertEquals(1.0f, target[3], 1.0e-6f);
+    }
+
+    @Test
+    public void testAggregateMean_buffer() {
+        // 2 x 2 grid in a 3 x 2 buffer, starting at index 1, averaged in place into index 0
+        FloatBuffer windSpeed = FloatBuffer.wrap(new float[]{0.0f, 4.0f, 8.0f, 0.0f, -999.0f, 6.0f});
+        FloatBuffer weight = FloatBuffer.wrap(new float[]{1.0f, 0.5f, 1.0f, 1.0f});
+        WindKernels.aggregateMean(windSpeed, 1, 3, weight, 0, 2, windSpeed, 0, 1, 2, 2, 2, -999.0f, -999.0f, false);
+
+        assertEquals((4.0f + 0.5f * 8.0f + 6.0f) / 2.5f, windSpeed.get(0), 1.0e-5f);
+
+        FloatBuffer windDirection = FloatBuffer.wrap(new float[]{170.0f, 190.0f});
+        FloatBuffer target = FloatBuffer.allocate(1);
+        WindKernels.aggregateMean(windDirection, 0, 2, null, 0, 0, target, 0, 1, 2, 1, 2, -999.0f, -999.0f, true);
+        assertEquals(180.0f, target.get(0), 1.0e-3f);
+    }
+
+    @Test
+    public void testAggregateMean_noValidPixel() {
+        float[] windSpeed = {-999.0f, 5.0f, -999.0f, 6.0f};
+        float[] weight = {1.0f, 0.0f, 1.0f, 0.0f};
+        float[] target = new float[1];
+        WindKernels.aggregateMean(windSpeed, 0, 2, weight, 0, 2, target, 0, 1, 2, 2, 2, -999.0f, -999.0f, false);
+
+        assertEquals(-999.0f, target[0], 0.0f);
+    }
+
+    @Test
+    public void testAggregateMean_circular() {
+        float[] windDirection = {350.0f, 20.0f, 10.0f, 340.0f};
+        float[] target = new float[1];
+        WindKernels.aggregateMean(windDirection, 0, 2, null, 0, 0, target, 0, 1, 2, 2, 2, -999.0f, -999.0f, true);
+
+        assertEquals(0.0f, target[0] > 180.0f ? target[0] - 360.0f : target[0], 1.0e-3f);
+
+        windDirection = new float[]{170.0f, 190.0f};
+        WindKernels.aggregateMean(windDirection, 0, 2, null, 0, 0, target, 0, 1, 2, 1, 2, -999.0f, -999.0f, true);
+        assertEquals(180.0f, target[0], 1.0e-3f);
+    }
+
+    @Test
+    public void testGetQualityWeight() {
+        assertEquals(1.0f, WindKernels.getQualityWeight(0.0f), 0.0f);
+        assertEquals(1.0f / 3.0f, WindKernels.getQualityWeight(2.0f), 1.0e-6f);
+        assertEquals(0.0f, WindKernels.getQualityWeight(3.0f), 0.0f);
+        assertEquals(0.0f, WindKernels.getQualityWeight(255.0f), 0.0f);
+        assertEquals(0.0f, WindKernels.getQualityWeight(Float.NaN), 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGridExceedsArray() {
+        WindKernels.extrapolateWindSpeed(new float[5], 0, 3, new float[6], 0, 3, 3, 2, -999.0f, 100.0, 0.1);
+    }
+}